@@ -12,9 +12,24 @@ public interface DiseaseVector {
 	
 	public Geometry getGeometry();
 	
+	/** @return the x coordinate of the agent's position */
+	public double getX();
+	
+	/** @return the y coordinate of the agent's position */
+	public double getY();
+	
 	public boolean stillExists();
 	
 	public void changeStage(int stage);
 	
 	public void receiveTreatment(String type);
+	
+	/** @return the agent's index into the per-disease state arrays */
+	public int getIndex();
+	
+	/** @return the agent's id, which decides its transmission draws */
+	public int getId();
+	
+	/** @return whether the agent has ever had the disease registered with the given id */
+	public boolean infectedWith(int diseaseId);
 }
\ No newline at end of file
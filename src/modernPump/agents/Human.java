@@ -10,13 +10,13 @@ import java.util.Map.Entry;
 import java.util.Random;
 
 import modernPump.agents.diseases.Disease;
+import modernPump.sim.EventLog;
 import modernPump.sim.ModernPump;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.engine.Stoppable;
 import sim.field.network.Edge;
 import sim.field.network.Network;
-import sim.util.Bag;
 import sim.util.geo.AttributeValue;
 import sim.util.geo.MasonGeometry;
 import swise.agents.communicator.Communicator;
@@ -64,7 +64,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 	Stoppable observer = null;
 	Stoppable mediaUser = null;
 	
-	HashMap <String, Disease> diseases = new HashMap <String, Disease> ();
+	int index; // the Human's position in the per-disease state arrays
 	
 	// Time checks
 	double lastMove = -1;
@@ -125,6 +125,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 		
 		myID = id;
 		this.world = world;
+		this.index = world.nextAgentIndex();
 		this.isMovable = true;
 		this.space = world.humanLayer;
 
@@ -168,9 +169,9 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 		// SCHEDULE THE AGENT'S VARIOUS PROCESSES
 		*/
-		// schedule the Human to check in and make decisions at the beginning of the simulation (with
-		// ordering 100 so that it runs after the wildfire, etc)
-		world.schedule.scheduleOnce(this, 100);
+		// schedule the Human to check in and make decisions at the beginning of the simulation (the
+		// agent schedule runs with ordering 100 so that it runs after the wildfire, etc)
+		world.agentSchedule.scheduleOnce(this);
 		
 		// set the Human's initial activity to be sleeping
 		currentActivity = activity_sleep;
@@ -212,10 +213,10 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 		// if super sick 
 		if(stress > illnessThreshold && currentActivity != activity_travel){
-			Bag medicalCenters = world.medicalLayer.getObjectsWithinDistance(this.geometry, 1000);
-			if(medicalCenters.size() > 0){
+			MasonGeometry medicalCenter = world.medicalIndex.nearest(geometry.getCoordinate(), 1000);
+			if(medicalCenter != null){
 				currentActivity = activity_travel;
-				headFor(((MasonGeometry)medicalCenters.get(0)).geometry.getCoordinate(), null);
+				headFor(medicalCenter.geometry.getCoordinate(), null);
 			}
 			else if(home.distance(geometry.getCoordinate()) > ModernPump.resolution){
 				currentActivity = activity_travel;
@@ -223,10 +224,10 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 			}
 			else{ // super sick, just stay in place and check back in an hour
 				currentActivity = activity_relax;
-				world.schedule.scheduleOnce(time + 12, 100 + world.random.nextInt(world.humans.size()), this);
+				world.agentSchedule.scheduleOnce(time + 12, this);
 				return;
 			}
-			world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
+			world.agentSchedule.scheduleOnce(time + 1, this);
 			return;
 		}
 		
@@ -234,7 +235,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 		if(currentActivity == activity_travel && path != null){
 
 			navigate(ModernPump.resolution);
-			world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
+			world.agentSchedule.scheduleOnce(time + 1, this);
 			return;
 		}
 
@@ -245,36 +246,36 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 			// if at work, start working
 			if(geometry.getCoordinate().distance(targetDestination) <= ModernPump.resolution && targetDestination.distance(home) > ModernPump.resolution){
-				if(stress > illnessThreshold && (world.medicalLayer.getObjectsWithinDistance(this.geometry, ModernPump.resolution).size() > 0)){
+				if(stress > illnessThreshold && world.medicalIndex.distanceToNearest(geometry.getCoordinate()) <= ModernPump.resolution){
 					
-					System.out.println(this.myID + " CHECKED INTO MEDICAL FACILITY");
+					world.logEvent(EventLog.event_FACILITY, index, 0, getX(), getY());
 					if(world.random.nextDouble() < .05) {
-						System.out.println(this.myID + " DIED");
+						world.logEvent(EventLog.event_DIED, index, 0, getX(), getY());
 						this.removeMe();
 						return;
 					}
 				
 					stress = 0;
-					world.schedule.scheduleOnce(time + 288 * 4, this);
+					world.agentSchedule.scheduleOnce(time + 288 * 4, this);
 					return;
 				}
 				else {
 					currentActivity = activity_work;
 					int nextTime = Math.max(time + 1, 12 * (1 + world.random.nextInt(8))); // random offset of up to an hour in either direction
-					world.schedule.scheduleOnce(nextTime, 100 + world.random.nextInt(world.humans.size()), this);
+					world.agentSchedule.scheduleOnce(nextTime, this);
 				}
 			}
 			// if at home, spend time at home
 			else if(geometry.getCoordinate().distance(home) <= ModernPump.resolution){
 				currentActivity = activity_relax;
 				int nextTime = Math.max(time + 1, getTime(22,0) + 6 - world.random.nextInt(13));  // random offset of up to an hour in either direction
-				world.schedule.scheduleOnce(nextTime, 100 + world.random.nextInt(world.humans.size()), this);				
+				world.agentSchedule.scheduleOnce(nextTime, this);				
 			}
 			else {
 				// reset path and head for target again!
 				headFor(this.targetDestination, familiarRoadNetwork);
 				navigate(ModernPump.resolution);
-				world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
+				world.agentSchedule.scheduleOnce(time + 1, this);
 			}
 			
 			return;
@@ -286,7 +287,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 			currentActivity = activity_relax;
 			int nextTime = Math.max(time + 1, getTime(7, 9) + 6 - world.random.nextInt(13));  // random offset of up to an hour in either direction
-			world.schedule.scheduleOnce(nextTime, 100 + world.random.nextInt(world.humans.size()), this);
+			world.agentSchedule.scheduleOnce(nextTime, this);
 			return;
 		}
 
@@ -300,7 +301,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 			this.currentActivity = this.activity_travel;
 			headFor(home, familiarRoadNetwork);
 			navigate(ModernPump.resolution);
-			world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
+			world.agentSchedule.scheduleOnce(time + 1, this);
 			return;
 		}
 		
@@ -310,7 +311,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 			currentActivity = activity_sleep;
 			int nextTime = Math.max(time + 1, getTime(7, 0) + 6 - world.random.nextInt(13));  // random offset of up to an hour in either direction
-			world.schedule.scheduleOnce(nextTime, 100 + world.random.nextInt(world.humans.size()), this);
+			world.agentSchedule.scheduleOnce(nextTime, this);
 			return;
 		}
 		
@@ -321,17 +322,17 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 			path = null;		
 			this.currentActivity = this.activity_travel;
-			Coordinate destination = world.humans.get(world.random.nextInt(world.humans.size())).home;
+			Coordinate destination = world.humans.get(world.random.nextInt(world.humans.size())).getHome();
 			while(destination.distance(home) >= 1500 * Math.abs(world.random.nextGaussian()))
-				destination = world.humans.get(world.random.nextInt(world.humans.size())).home;
+				destination = world.humans.get(world.random.nextInt(world.humans.size())).getHome();
 			headFor(destination, familiarRoadNetwork);
 			navigate(ModernPump.resolution);
-			world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
+			world.agentSchedule.scheduleOnce(time + 1, this);
 		}
 
 		// default for no other case
 		else {
-			System.out.println("PROBLEM WITH THIS AGENT");
+			world.logEvent(EventLog.event_PROBLEM, index, currentActivity, getX(), getY());
 		}
 		
 	}
@@ -436,7 +437,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 		goalPoint = targetDestination;
 		
 		// attempt to find path
-		ArrayList <LineString> pathComponents = clearPath(this.geometry.getCoordinate(), targetDestination);
+		ArrayList <LineString> pathComponents = clearPath(world, this.geometry.getCoordinate(), targetDestination);
 		path = new ArrayList <Edge> ();
 		for(int i = 0; i < pathComponents.size(); i++){
 			MasonGeometry mg = new MasonGeometry(pathComponents.get(i));
@@ -454,23 +455,25 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 		endIndex = segment.getEndIndex();
 	}
 	
-	ArrayList <LineString> clearPath(Coordinate startPoint, Coordinate endPoint){
+	/**
+	 * @return a path of straight lines from the start point to the end point which stays on land,
+	 * detouring through random points on land around any water in the way
+	 */
+	public static ArrayList <LineString> clearPath(ModernPump world, Coordinate startPoint, Coordinate endPoint){
 		LineString ls = world.fa.createLineString(new Coordinate[] {startPoint, endPoint});
 		ArrayList <LineString> result = new ArrayList <LineString> ();
-		if(ls.crosses(world.landArea)){
+		if(world.land.crosses(ls)){
 			double distance = startPoint.distance(endPoint);
 			Coordinate midPoint = new Coordinate(startPoint.x + .5 * (endPoint.x - startPoint.x), startPoint.y + .5 * (endPoint.y - startPoint.y));
 			//Geometry g = ls.intersection(world.landArea);
 			Coordinate c = midPoint;//g.getCoordinate();
 			double halfDistance = distance / 2.;
 			Coordinate b = new Coordinate(c.x + halfDistance - world.random.nextInt((int)distance), c.y + halfDistance - world.random.nextInt((int)distance));
-			Point p = world.fa.createPoint(b);
-			while(!world.landArea.contains(p)){
+			while(!world.land.contains(b)){
 				b = new Coordinate(c.x + halfDistance - world.random.nextInt((int)distance), c.y + halfDistance - world.random.nextInt((int)distance));
-				p = world.fa.createPoint(b);
 			}
-			result.addAll( clearPath(startPoint, b));
-			result.addAll( clearPath(b, endPoint));
+			result.addAll( clearPath(world, startPoint, b));
+			result.addAll( clearPath(world, b, endPoint));
 			return result;
 		}
 
@@ -657,25 +660,40 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 
 	@Override
 	public void acquireDisease(final Disease d) {
-		d.setHost(this);
-		d.start(world.schedule);
-		diseases.put(d.getName(), d);
+		d.infect(world, this);
 		this.addIntegerAttribute("Sick", 1);
-		System.out.println(myID + " INFECTED");
+		world.logEvent(EventLog.event_INFECTED, index, d.getId(), getX(), getY());
 		stress = 1;
 	}
 
 	@Override
 	public void loseDisease(Disease d) {
 		// start running again!
-		world.schedule.scheduleOnce(world.schedule.getTime() + 1, 100 + world.random.nextInt(world.humans.size()), this);
+		world.agentSchedule.scheduleOnce(world.schedule.getTime() + 1, this);
 		stress = 1;
 	}
 	
 	public boolean infectedWith(String diseaseName){
-		if(diseases.containsKey(diseaseName)) return true;
-		else return false;
+		Disease d = world.getDisease(diseaseName);
+		return d != null && d.hasInfected(this);
+	}
+	
+	/** @return whether the Human has ever had the disease registered with the given id */
+	public boolean infectedWith(int diseaseId){
+		return world.getDisease(diseaseId).state.hasBeenInfected(index);
 	}
+	
+	@Override
+	public int getIndex(){ return index; }
+	
+	@Override
+	public int getId(){ return index; }
+
+	@Override
+	public double getX(){ return geometry.getCoordinate().x; }
+
+	@Override
+	public double getY(){ return geometry.getCoordinate().y; }
 
 	@Override
 	public boolean stillExists() {
@@ -685,6 +703,7 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 	@Override
 	public void changeStage(int stage) {
 		this.addIntegerAttribute("Sick", stage);
+		world.logEvent(EventLog.event_STAGE, index, stage, getX(), getY());
 		if(stage == 1)
 			stress = 3;
 		else if(stage == 2)
@@ -694,7 +713,8 @@ public class Human extends TrafficAgent implements Serializable, DiseaseVector {
 	@Override
 	public void receiveTreatment(String type) {
 		ArrayList <Disease> cured = new ArrayList <Disease> ();
-		for(Disease d: this.diseases.values()){
+		for(Disease d: world.diseases){
+			if(!d.hasInfected(this)) continue;
 			
 		}
 		
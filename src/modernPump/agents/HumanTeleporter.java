@@ -1,57 +1,47 @@
 package modernPump.agents;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Random;
 
 import modernPump.agents.diseases.Disease;
+import modernPump.objects.ContactGrid;
+import modernPump.objects.SplitMix;
+import modernPump.sim.EventLog;
 import modernPump.sim.ModernPump;
+import modernPump.sim.Strip;
 import sim.engine.SimState;
 import sim.engine.Steppable;
-import sim.engine.Stoppable;
-import sim.field.network.Edge;
-import sim.field.network.Network;
-import sim.util.Bag;
-import sim.util.geo.AttributeValue;
 import sim.util.geo.MasonGeometry;
-import sim.util.geo.PointMoveTo;
-import swise.agents.communicator.Communicator;
-import swise.agents.communicator.Information;
-import swise.agents.MobileAgent;
-import swise.agents.SpatialAgent;
-import swise.agents.TrafficAgent;
-import swise.objects.NetworkUtilities;
-import swise.objects.network.GeoNode;
-import swise.objects.network.ListEdge;
 
 import com.vividsolutions.jts.geom.*;
-import com.vividsolutions.jts.linearref.LengthIndexedLine;
 
 
 /**
- * Human object. Contains attributes, makes decisions, communicates, moves, etc. 
+ * Human object for the teleporting movement model. Makes decisions and moves from place to place,
+ * jumping straight to its destination rather than following the roads.
+ *
+ * The Human itself holds nothing but its identity: its home, position, activity and so on are
+ * kept in the world's Population, under the Human's index. Anything else its step changes, it
+ * changes through the Strip in which it is stepped.
+ *
+ * A Human's id stays the same for the whole run, and decides its random streams and the events
+ * logged about it. In a run split among processes (see Region) the Human moves from one process
+ * to another, taking its state with it, and is given a fresh index by each; otherwise its index
+ * is its id.
  * 
  */
-public class HumanTeleporter extends TrafficAgent implements Serializable, DiseaseVector {
+public class HumanTeleporter implements Steppable, Serializable, DiseaseVector, ContactGrid.Resident, Strip.Agent {
 
 	
 	private static final long serialVersionUID = 1L;
 
 	////////// Objects ///////////////////////////////////////
 	ModernPump world;
-	
-	Stoppable stopper = null;
-	boolean removed = false;
-	boolean alive = true;
+	Population population;
 
 	////////// Activities ////////////////////////////////////
-
-	int currentActivity = 0;
 	
 	public static int activity_travel = 1;
 	public static int activity_work = 2;
@@ -59,130 +49,122 @@ public class HumanTeleporter extends TrafficAgent implements Serializable, Disea
 	
 	////////// Attributes ///////////////////////////////////
 
-	String myID;
-	
-	Coordinate home, water;
-	
-	Stoppable observer = null;
-	Stoppable mediaUser = null;
-	
-	HashMap <String, Disease> diseases = new HashMap <String, Disease> ();
-	
-	// Time checks
-	double lastMove = -1;
-
-	// weighted by familiarity (and more familiar with major highways, etc)
-	// this should be updated when Human finds out about fires!
-	public Network familiarRoadNetwork = null;
-	ArrayList <ArrayList<Edge>> familiarPaths = new ArrayList <ArrayList <Edge>> ();
-	
-	public HashMap <Object, Information> knowledge = new HashMap <Object, Information> ();
-
-	HashMap <Integer, Integer> sentimentSignal = new HashMap <Integer, Integer> ();
-	
-	double size = 3;
-	
-	Coordinate targetDestination = null;
-
-	double stress = 0; // between 0 and 10, 10 being super stressed out in a bad way
-	
-	////////// Parameters ///////////////////////////////////
-
-	double decayParam = .5;
-	double illnessThreshold = 5;
+	int id; // the Human's id, the same in every process of a run
+	int index; // the Human's position in the Population and the per-disease state arrays
 	
-	////////// END Parameters ///////////////////////////////
+	////////// END Attributes ///////////////////////////////
 	
 		
 	/**
-	 * Default Wrapper Constructor: provides the default parameters
+	 * Constructor
 	 * 
-	 * @param id - unique string identifying the Human
 	 * @param position - Coordinate indicating the initial position of the Human
 	 * @param home - Coordinate indicating the Human's home location
-	 * @param work - Coordinate indicating the Human's workplace
 	 * @param world - reference to the containing ModernPump instance
 	 */
-	public HumanTeleporter(String id, Coordinate position, Coordinate home, ModernPump world){		
-		this(id, position, home, world, .5, 800);
+	public HumanTeleporter(Coordinate position, Coordinate home, ModernPump world){		
+		this(world.nextAgentIndex(), position, home, world);
 	}
 	
 	/**
-	 * Specialized constructor: use to specify parameters for an Human
-	 * 
-	 * @param id - unique string identifying the Human
-	 * @param position - Coordinate indicating the initial position of the Human
-	 * @param home - Coordinate indicating the Human's home location
-	 * @param work - Coordinate indicating the Human's workplace
-	 * @param world - reference to the containing ModernPump instance
-	 * @param decayParam - parameter indicating rate of decay of influence of stressful information
-	 * 		on the Agents' stress level
-	 * @param speed - speed at which the Human moves through the environment (m per 5 min)
+	 * As HumanTeleporter(position, home, world), giving the Human the given id
 	 */
-	public HumanTeleporter(String id, Coordinate position, Coordinate home, ModernPump world, double decayParam, double speed){
-
-		super((new GeometryFactory()).createPoint(position));
+	public HumanTeleporter(int id, Coordinate position, Coordinate home, ModernPump world){
 		
-		myID = id;
-		this.world = world;
-		this.isMovable = true;
-		this.space = world.humanLayer;
-
-		this.decayParam = decayParam;
+		this(id, world);
 
-		this.home = home;
-		this.speed = speed;
-
-		// schedule the Human to check in and make decisions at the beginning of the simulation (with
-		// ordering 100 so that it runs after the wildfire, etc)
-		world.schedule.scheduleOnce(this, 100);
-		
 		// set the Human's initial activity to be sleeping
-		currentActivity = activity_sleep;
-		
-		// add the Human to the space
-		space.addGeometry(this);
+		population.add(index, id, position, home, activity_sleep);
+
+		// schedule the Human to check in and make decisions at the beginning of the simulation (the
+		// agent schedule runs with ordering 100 so that it runs after the wildfire, etc)
+		world.agentSchedule.scheduleOnce(this);
 		
+		// add the Human to the space and to the list of the living
+		world.contactIndex.add(this, position);
+		population.livePosition[index] = world.humans.size();
+		world.humans.add(this);
+	}
+	
+	// a Human with the given id and a fresh index, whose state is yet to be set up
+	HumanTeleporter(int id, ModernPump world){
+		this.world = world;
+		this.population = world.population;
+		this.id = id;
+		this.index = population.allocate();
+	}
+	
+	/**
+	 * Read in a Human written out by write() in another process, and add it to this one. It is not
+	 * scheduled: its wakeups travel separately
+	 */
+	public static HumanTeleporter read(DataInput in, ModernPump world) throws IOException {
+		HumanTeleporter h = new HumanTeleporter(in.readInt(), world);
+		world.population.read(h.index, h.id, in);
+		for(Disease d: world.diseases)
+			d.state.read(h.index, h, in);
 		
-		// set the Human to not initially be evacuating
-		this.addIntegerAttribute("Sick", 0);		
+		world.contactIndex.add(h, h.getPosition());
+		world.population.livePosition[h.index] = world.humans.size();
+		world.humans.add(h);
+		return h;
+	}
+	
+	/**
+	 * Write out the Human's state, and that of its infections, for read() in another process
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(id);
+		population.write(index, out);
+		for(Disease d: world.diseases)
+			d.state.write(index, out);
 	}
 
 	/**
 	 * Navigate
 	 * 
-	 * Attempt to move along the existing path. If the road is impassible, a RoadClosure 
-	 * is raised and the Human attempts to replan its path to its target. If that replanning 
-	 * fails, the Human defaults to trying to wander toward its target.
+	 * Jump straight to the Human's target, if it has one.
 	 */
 	public int navigate(double resolution){
+		return navigate(resolution, world.serialStrip);
+	}
+	
+	int navigate(double resolution, Strip strip){
 		
-		// update the heatmap, as the Human is moving (or trying to, at least)
-		//world.incrementHeatmap(this.geometry);
-
-		if(targetDestination != null)
-			this.updateLoc(this.targetDestination);
-		targetDestination = null;
+		if(hasTarget())
+			this.updateLoc(new Coordinate(population.targetX[index], population.targetY[index]), strip);
+		population.targetX[index] = population.targetY[index] = Double.NaN;
 		
 		return 1;
 	}
 	
-	Coordinate pickPlaceToVisit(){
+	/**
+	 * Pick the home of another agent to visit. The distance of the trip is drawn from a (folded) 
+	 * Gaussian, and the destination is drawn uniformly from the homes within a band of 5km around 
+	 * that distance. If no-one lives in the band, it is widened to include anyone closer, and then anyone at all.
+	 *
+	 * @return the id of the agent whose home is to be visited
+	 */
+	public int pickPlaceToVisit(){
+		Strip strip = world.serialStrip;
+		strip.random().setState(population.randomState[index]);
+		int destination = pickPlaceToVisit(strip);
+		population.randomState[index] = strip.random().getState();
+		return world.homeIndex.getOwner(destination);
+	}
+	
+	// the position in the world's HomeIndex of the home to be visited
+	int pickPlaceToVisit(Strip strip){
 		
-		Coordinate destination = world.humans.get(world.random.nextInt(world.humans.size())).home;
-		double stdDev = world.random.nextGaussian();
+		Coordinate home = getHome();
+		double stdDev = strip.random().nextGaussian();
 		double distanceStdDev = 5000 * Math.abs(stdDev), distanceMin = 5000 * (Math.abs(stdDev) - 1);
-//		if(distanceStdDev >= 30000)
-//			System.out.println(distanceStdDev / 3.);
-		int tries = 0;
-		while(destination.distance(home) > distanceStdDev || destination.distance(home) < distanceMin){
-			destination = world.humans.get(world.random.nextInt(world.humans.size())).home;
-			tries++;
-			if(tries > 1000) 
-				distanceMin = 0;
-			if(tries > 5000)
-				distanceStdDev = Double.MAX_VALUE;
-		}
+		
+		int destination = strip.sampleHome(home, distanceMin, distanceStdDev);
+		if(destination < 0)
+			destination = strip.sampleHome(home, 0, distanceStdDev);
+		if(destination < 0)
+			destination = strip.sampleHome(home, 0, Double.MAX_VALUE);
 
 		return destination;
 	}
@@ -190,83 +172,78 @@ public class HumanTeleporter extends TrafficAgent implements Serializable, Disea
 	/**
 	 * Based on the Human's current activity and time of day, pick its next activity
 	 */
-	void pickDefaultActivity(){
+	void pickDefaultActivity(Strip strip){
 
 		// get the time
 		int time = (int) world.schedule.getTime();
 
+		Population p = population;
+		int currentActivity = p.activity[index];
+		
 		// if super sick 
-		if(stress > illnessThreshold && currentActivity != activity_travel){
-			Bag medicalCenters = world.medicalLayer.getObjectsWithinDistance(this.geometry, 1000);
-			if(medicalCenters.size() > 0){
-				currentActivity = activity_travel;
-				headFor(((MasonGeometry)medicalCenters.get(0)).geometry.getCoordinate(), null);
+		if(p.stress[index] > p.illnessThreshold && currentActivity != activity_travel){
+			MasonGeometry medicalCenter = strip.nearestFacility(getPosition(), 1000);
+			if(medicalCenter != null){
+				p.activity[index] = (byte) activity_travel;
+				Coordinate c = medicalCenter.geometry.getCoordinate();
+				headFor(c.x, c.y);
 			}
-			else if(home.distance(geometry.getCoordinate()) > ModernPump.resolution){
-				currentActivity = activity_travel;
-				headFor(home, familiarRoadNetwork);
+			else if(distanceFromHome() > ModernPump.resolution){
+				p.activity[index] = (byte) activity_travel;
+				headFor(p.homeX[index], p.homeY[index]);
 			}
 			else{ // super sick, just stay in place and check back in an hour
-				currentActivity = activity_sleep;
-				world.schedule.scheduleOnce(time + 12, 100 + world.random.nextInt(world.humans.size()), this);
+				p.activity[index] = (byte) activity_sleep;
+				strip.scheduleOnce(time + 12, this);
 				return;
 			}
-			int timeDiff = (int) Math.max(1,  geometry.getCoordinate().distance(targetDestination) / this.speed);
-			world.schedule.scheduleOnce(time + timeDiff, 100 + world.random.nextInt(world.humans.size()), this);
+			int timeDiff = (int) Math.max(1, distanceToTarget() / p.speed);
+			strip.scheduleOnce(time + timeDiff, this);
 			return;
 		}
 		
 		// if the Human is moving, keep moving! 
-		if(currentActivity == activity_travel && targetDestination != null){
-		//	System.out.println("move");
-			navigate(ModernPump.resolution);
-			world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
-			targetDestination = null;
-			currentActivity = activity_work;
+		if(currentActivity == activity_travel && hasTarget()){
+			navigate(ModernPump.resolution, strip);
+			strip.scheduleOnce(time + 1, this);
+			p.activity[index] = (byte) activity_work;
 			return;
 		}
 
 		// if the Human is traveling but has reached the end of its path, either transition into working or relaxing at home
-		else if(currentActivity == activity_travel && targetDestination == null){
-
+		else if(currentActivity == activity_travel){
 
 			// if at work, start working
-			if(geometry.getCoordinate().distance(home) > ModernPump.resolution){
-	//			System.out.println("transition at end of path");
-				if(stress > illnessThreshold && (world.medicalLayer.getObjectsWithinDistance(this.geometry, ModernPump.resolution).size() > 0)){
+			if(distanceFromHome() > ModernPump.resolution){
+				if(p.stress[index] > p.illnessThreshold && strip.distanceToNearestFacility(getPosition()) <= ModernPump.resolution){
 					
-					System.out.println(this.myID + " CHECKED INTO MEDICAL FACILITY");
-					if(world.random.nextDouble() < .05) {
-						System.out.println(this.myID + " DIED");
-						this.removeMe();
+					strip.logEvent(EventLog.event_FACILITY, id, 0, p.x[index], p.y[index]);
+					if(strip.random().nextDouble() < .05) {
+						strip.logEvent(EventLog.event_DIED, id, 0, p.x[index], p.y[index]);
+						strip.remove(this);
 						return;
 					}
 				
-					stress = 0;
-					world.schedule.scheduleOnce(time + 24, this);
+					p.stress[index] = 0;
+					strip.scheduleOnce(time + 24, this);
 					return;
 				}
 				else {
-					currentActivity = activity_work;
-					int nextTime = Math.max(time + 1, 1 + world.random.nextInt(4)); // random offset of up to an hour in either direction
-					world.schedule.scheduleOnce(nextTime, 100 + world.random.nextInt(world.humans.size()), this);
+					p.activity[index] = (byte) activity_work;
+					int nextTime = Math.max(time + 1, 1 + strip.random().nextInt(4)); // random offset of up to an hour in either direction
+					strip.scheduleOnce(nextTime, this);
 				}
 			}
 			// if at home, spend time at home
-			else if(geometry.getCoordinate().distance(home) <= ModernPump.resolution && time % 24 > 18){
-		//		System.out.println("transition at end of path");
-				currentActivity = activity_sleep;
-				int nextTime = time + Math.max(1, 24 - (time % 24) - world.random.nextInt(3) + 9); // should be: next day, plus aobut 8 hrs
-				world.schedule.scheduleOnce(nextTime, 100 + world.random.nextInt(world.humans.size()), this);
+			else if(time % 24 > 18){
+				p.activity[index] = (byte) activity_sleep;
+				int nextTime = time + Math.max(1, 24 - (time % 24) - strip.random().nextInt(3) + 9); // should be: next day, plus aobut 8 hrs
+				strip.scheduleOnce(nextTime, this);
 				return;
 			}
 			else {
-				this.currentActivity = this.activity_travel;
-				headFor(pickPlaceToVisit(), familiarRoadNetwork);
-				int timeDiff = (int) Math.max(1,  geometry.getCoordinate().distance(targetDestination) / this.speed);
-				world.schedule.scheduleOnce(time + timeDiff, 100 + world.random.nextInt(world.humans.size()), this);
+				visitSomeone(time, strip);
 				return;
-
 			}
 			
 			return;
@@ -274,162 +251,146 @@ public class HumanTeleporter extends TrafficAgent implements Serializable, Disea
 
 		// if the Human is just getting up in the morning, stay in house until time to leave
 		else if(currentActivity == activity_sleep){
-	//		System.out.println("wakeup");
-
-			this.currentActivity = this.activity_travel;
-			headFor(pickPlaceToVisit(), familiarRoadNetwork);
-			int timeDiff = (int) Math.max(1,  geometry.getCoordinate().distance(targetDestination) / this.speed);
-			world.schedule.scheduleOnce(time + timeDiff, 100 + world.random.nextInt(world.humans.size()), this);
+			visitSomeone(time, strip);
 			return;
 		}
 
 		// if the Human has just gotten off work, head home
 		else if(currentActivity == activity_work){
-			
-	//		System.out.println("go home");
-
-			this.currentActivity = this.activity_travel;
-			headFor(home, familiarRoadNetwork);
-			navigate(ModernPump.resolution);
-			world.schedule.scheduleOnce(time + 1, 100 + world.random.nextInt(world.humans.size()), this);
+			p.activity[index] = (byte) activity_travel;
+			headFor(p.homeX[index], p.homeY[index]);
+			navigate(ModernPump.resolution, strip);
+			strip.scheduleOnce(time + 1, this);
 			return;
 		}
 		
 		// default for no other case
 		else {
-			System.out.println("PROBLEM WITH THIS AGENT");
+			strip.logEvent(EventLog.event_PROBLEM, id, currentActivity, p.x[index], p.y[index]);
 		}
 		
 	}
 		
+	/**
+	 * Set off for someone else's home, and check in again once there
+	 */
+	void visitSomeone(int time, Strip strip){
+		population.activity[index] = (byte) activity_travel;
+		int destination = pickPlaceToVisit(strip);
+		headFor(world.homeIndex.getX(destination), world.homeIndex.getY(destination));
+		int timeDiff = (int) Math.max(1, distanceToTarget() / population.speed);
+		strip.scheduleOnce(time + timeDiff, this);
+	}
+	
 	/**
 	 * Check in on the Human and run its decision tree. Schedule when next to check in.
 	 */
 	@Override
 	public void step(SimState state) {
+		step(world.serialStrip);
+	}
+	
+	/**
+	 * As step(state), making any changes beyond the Human's own state through the given Strip
+	 */
+	@Override
+	public void step(Strip strip) {
 		
 		////////// Initial Checks ///////////////////////////////////////////////
 		
-		if(removed)
+		if(population.removed[index])
 			return;
 		
 		// make sure the Human is only being called once per tick
-		if(lastMove >= state.schedule.getTime()) return;
+		if(population.lastMove[index] >= world.schedule.getTime()) return;
 		
+		strip.countStep();
 		
 		////////// BEHAVIOR //////////////////////////////////////////////////////
 		
-		// If there IS NOT a problem ///////////////
-		if(knowledge.size() == 0){
-			pickDefaultActivity();
-		}
+		// draw from the Human's own random stream, wherever it is stepped
+		SplitMix random = strip.random();
+		random.setState(population.randomState[index]);
+		
+		pickDefaultActivity(strip);
+		
+		population.randomState[index] = random.getState();
 		
 		////////// Cleanup ////////////////////////////////////////////////////
 
-		// update this Human's information, and possibly remove them from the simulation if they've
-		// exited the bounds of the world
-		lastMove = state.schedule.getTime();
+		population.lastMove[index] = (int) world.schedule.getTime();
 	}
 	
 	/**
 	 * Tidies up after the Human and removes all possible traces of it from the simulation
 	 */
-	void removeMe(){
+	public void removeMe(){
 		
 		// internal record-keeping
-		removed = true;
-//		observer.stop();
-		lastMove = world.schedule.getTime() + 1;
+		population.removed[index] = true;
+		population.lastMove[index] = (int) world.schedule.getTime() + 1;
 		
-		if(stopper != null)
-			stopper.stop();
+		// take the Human out of the list of the living by moving the last of them into its place
+		int position = population.livePosition[index];
+		HumanTeleporter last = world.humans.remove(world.humans.size() - 1);
+		if(last != this){
+			world.humans.set(position, last);
+			population.livePosition[last.index] = position;
+		}
+		population.livePosition[index] = -1;
+		world.numDied++;
 		
-		world.humans.remove(this);
+		world.contactIndex.remove(this);
+		world.homeIndex.remove(id, getHome());
+		if(world.region != null)
+			world.region.died(this);
 		
 		// finally, reset position information
 		this.updateLoc(new Coordinate(0,0)); // take me off the map, essentially
-		world.resetLayers();
 		return;
 	}
 	
 	/**
-	 * Factor a new piece of information with a set amount of stress into the Human's stress level
-
-	 * @param valence - the degree to which the new information is stressful
+	 * Take the Human out of this process, as it moves to another: out of the list of the living and
+	 * the contact index, giving up its index. Unlike removeMe(), the Human is not counted as dead,
+	 * and its home stays in the HomeIndex. Its infections and wakeups are taken out by the Region
 	 */
-	void updateToStressLevel(int valence){
-		
-		int time = (int)world.schedule.getTime();
-		if(!sentimentSignal.containsKey(time)) // if no other information this tick, save it
-			sentimentSignal.put(time, valence);
-		else if(valence > sentimentSignal.get(time)) // else, if this is the most stressful info this tick, save it
-			sentimentSignal.put(time, valence);
-	}
-
-
-	void headStraightTo(Coordinate place){
-		
-		targetDestination = (Coordinate) place.clone();
-		
-		// attempt to find path
-		ArrayList <LineString> pathComponents = clearPath(this.geometry.getCoordinate(), targetDestination);
-		path = new ArrayList <Edge> ();
-		for(int i = 0; i < pathComponents.size(); i++){
-			MasonGeometry mg = new MasonGeometry(pathComponents.get(i));
-			mg.addStringAttribute("open", "OPEN");
-			ListEdge e = new ListEdge(new Edge(new GeoNode(this.geometry), new GeoNode(world.fa.createPoint(place)), mg), mg.geometry.getLength());
-			path.add(e);
+	public void depart(){
+		int position = population.livePosition[index];
+		HumanTeleporter last = world.humans.remove(world.humans.size() - 1);
+		if(last != this){
+			world.humans.set(position, last);
+			population.livePosition[last.index] = position;
 		}
-		
-		
-		// clean up
-		direction = 1;
-		node = (GeoNode) path.get(0).getFrom();
-		segment = new LengthIndexedLine(pathComponents.get(0));
-		startIndex = segment.getStartIndex();
-		endIndex = segment.getEndIndex();
+		world.contactIndex.remove(this);
+		population.release(index);
 	}
 	
-	ArrayList <LineString> clearPath(Coordinate startPoint, Coordinate endPoint){
-		LineString ls = world.fa.createLineString(new Coordinate[] {startPoint, endPoint});
-		ArrayList <LineString> result = new ArrayList <LineString> ();
-		if(ls.crosses(world.landArea)){
-			double distance = startPoint.distance(endPoint);
-			Coordinate midPoint = new Coordinate(startPoint.x + .5 * (endPoint.x - startPoint.x), startPoint.y + .5 * (endPoint.y - startPoint.y));
-			//Geometry g = ls.intersection(world.landArea);
-			Coordinate c = midPoint;//g.getCoordinate();
-			double halfDistance = distance / 2.;
-			Coordinate b = new Coordinate(c.x + halfDistance - world.random.nextInt((int)distance), c.y + halfDistance - world.random.nextInt((int)distance));
-			Point p = world.fa.createPoint(b);
-			while(!world.landArea.contains(p)){
-				b = new Coordinate(c.x + halfDistance - world.random.nextInt((int)distance), c.y + halfDistance - world.random.nextInt((int)distance));
-				p = world.fa.createPoint(b);
-			}
-			result.addAll( clearPath(startPoint, b));
-			result.addAll( clearPath(b, endPoint));
-			return result;
-		}
-
-		result.add(ls);
-		return result;
-	}
-	
-
 	/**
 	 * Set up a course to take the Human to the given coordinates
-	 * 
-	 * @param place - the target destination
-	 * @return 1 for success, -1 for a failure to find a path, -2 for failure based on the provided destination or current position
+	 *
+	 * @return 1 for success
 	 */
-	int headFor(Coordinate place, Network roadNetwork) {
-
-		// first, record from where the agent is starting
-		startPoint = this.geometry.getCoordinate();
-		targetDestination = (Coordinate) place.clone();
-		//headStraightTo(place);
+	int headFor(double x, double y) {
+		population.targetX[index] = x;
+		population.targetY[index] = y;
 		return 1;
 	}
 
+	boolean hasTarget(){
+		return !Double.isNaN(population.targetX[index]);
+	}
+		
+	double distanceToTarget(){
+		double dx = population.x[index] - population.targetX[index], dy = population.y[index] - population.targetY[index];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+	
+	double distanceFromHome(){
+		double dx = population.x[index] - population.homeX[index], dy = population.y[index] - population.homeY[index];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
 	////////////////////////////////////////////////////////////////////////////////////////////////
 	/////// end METHODS ////////////////////////////////////////////////////////////////////////////
 	////////////////////////////////////////////////////////////////////////////////////////////////
@@ -441,62 +402,71 @@ public class HumanTeleporter extends TrafficAgent implements Serializable, Disea
 	
 
 	/**
-	 * Comparator
+	 * Comparator: each Human is unique
 	 */
 	public boolean equals(Object o){
-		if(!(o instanceof Human)) return false;
-		else 
-			return ((Human)o).myID.equals(myID);
+		return o == this;
 	}
 	
 	/** HashCode */
-	public int hashCode(){ return myID.hashCode(); }
+	public int hashCode(){ return id; }
 
-	public String toString(){ return myID; }
+	/** @return the Human's id as a string, for output */
+	public String getID(){ return "id_" + id; }
 	
-	// GETTERS
-	public Coordinate getHome(){ return home; }
-	public int getActivity(){ return this.currentActivity; }
-	public double getValence(){ return this.stress; }
+	public String toString(){ return getID(); }
 	
-	/**  Wrapper around step, so that it can be called from other functions */
-	void stepWrapper(){ this.step(world); }
+	// GETTERS
+	public Coordinate getHome(){ return new Coordinate(population.homeX[index], population.homeY[index]); }
+	public Coordinate getPosition(){ return new Coordinate(population.x[index], population.y[index]); }
+	public int getActivity(){ return population.activity[index]; }
+	public double getValence(){ return population.stress[index]; }
 
 	@Override
 	public void acquireDisease(final Disease d) {
-		d.setHost(this);
-		d.start(world.schedule);
-		diseases.put(d.getName(), d);
-		this.addIntegerAttribute("Sick", 1);
-		System.out.println(myID + " INFECTED");
-		stress = 1;
-		world.diseasesLayer.addGeometry(new MasonGeometry(world.fa.createPoint(home)));
+		d.infect(world, this);
+		population.setSick(index, 1);
+		world.logEvent(EventLog.event_INFECTED, id, d.getId(), population.x[index], population.y[index]);
+		population.stress[index] = 1;
+		world.recordCase(population.homeX[index], population.homeY[index]);
 	}
 
 	@Override
 	public void loseDisease(Disease d) {
 		// start running again!
-		world.schedule.scheduleOnce(world.schedule.getTime() + 1, 100 + world.random.nextInt(world.humans.size()), this);
-		stress = 1;
+		world.agentSchedule.scheduleOnce(world.schedule.getTime() + 1, this);
+		population.stress[index] = 1;
 	}
 	
 	public boolean infectedWith(String diseaseName){
-		if(diseases.containsKey(diseaseName)) return true;
-		else return false;
+		Disease d = world.getDisease(diseaseName);
+		return d != null && d.hasInfected(this);
+	}
+	
+	/** @return whether the Human has ever had the disease registered with the given id */
+	public boolean infectedWith(int diseaseId){
+		return world.getDisease(diseaseId).state.hasBeenInfected(index);
 	}
+	
+	@Override
+	public int getIndex(){ return index; }
+	
+	@Override
+	public int getId(){ return id; }
 
 	@Override
 	public boolean stillExists() {
-		return this.alive;
+		return !population.removed[index];
 	}
 
 	@Override
 	public void changeStage(int stage) {
-		this.addIntegerAttribute("Sick", stage);
+		population.setSick(index, stage);
+		world.logEvent(EventLog.event_STAGE, id, stage, population.x[index], population.y[index]);
 		if(stage == 1)
-			stress = 3;
+			population.stress[index] = 3;
 		else if(stage == 2)
-			stress = 7;
+			population.stress[index] = 7;
 	}
 
 	@Override
@@ -506,19 +476,41 @@ public class HumanTeleporter extends TrafficAgent implements Serializable, Disea
 	}
 
 	/**
-	 * Change the position of the MobileAgent in the space in which it is embedded
-	 * @param c - the new position of the MobileAgent
+	 * Change the position of the Human
+	 * @param c - the new position of the Human
 	 */
 	protected void updateLoc(Coordinate c){
-		PointMoveTo p = new PointMoveTo();
-		p.setCoordinate(c);
-		geometry.apply(p);
-		geometry.geometryChanged();
+		updateLoc(c, world.serialStrip);
+	}
+	
+	void updateLoc(Coordinate c, Strip strip){
+		population.moveTo(index, c.x, c.y);
+		strip.moved(this, c.x, c.y);
 	}
 
+	/** @return the point showing the Human if it is displayed, and otherwise a new point at its position */
 	@Override
 	public Geometry getGeometry() {
-		return geometry;
+		MasonGeometry mg = population.getDisplayed(index);
+		return mg != null ? mg.geometry : world.fa.createPoint(getPosition());
+	}
+
+	@Override
+	public double getX(){ return population.x[index]; }
+
+	@Override
+	public double getY(){ return population.y[index]; }
+	
+	@Override
+	public int getContactCell() { return population.contactCell[index]; }
+	
+	@Override
+	public int getContactSlot() { return population.contactSlot[index]; }
+
+	@Override
+	public void setContactPosition(int cell, int slot) {
+		population.contactCell[index] = cell;
+		population.contactSlot[index] = slot;
 	}
 
 	////////////////////////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,234 @@
+package modernPump.agents;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import modernPump.objects.SplitMix;
+import sim.field.geo.GeomVectorField;
+import sim.util.IntBag;
+import sim.util.geo.MasonGeometry;
+import sim.util.geo.PointMoveTo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * The state of every HumanTeleporter, held in primitive arrays indexed by the agents' indices
+ * rather than in the agents themselves. Each agent keeps only its index, so that a population of
+ * millions costs tens of bytes per agent rather than kilobytes.
+ *
+ * Each agent draws its random numbers from a stream of its own, split off from the master seed
+ * by its id (see SplitMix), so what an agent does depends only on its own history and not on
+ * which other agents happen to have been stepped before it.
+ *
+ * Indices are handed out in order by allocate(). The indices of agents which have moved to
+ * another process (see Region) are given back with release(), and handed out again before any
+ * new ones.
+ *
+ * Agents have no geometry of their own. Those with indices below the display limit are given a
+ * point in the display layer, which follows them around; the rest are never drawn, and have no
+ * geometry at all.
+ *
+ * @author swise
+ *
+ */
+public class Population implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	// the behavior shared by every agent
+	public double speed = 800; // m per tick
+	public double illnessThreshold = 5;
+	
+	double [] homeX, homeY;
+	double [] x, y;
+	double [] targetX, targetY; // where the agent is headed, or NaN if nowhere
+	byte [] activity;
+	float [] stress; // between 0 and 10, 10 being super stressed out in a bad way
+	int [] lastMove; // the last tick on which the agent was stepped
+	boolean [] removed;
+	int [] livePosition; // the agent's position in the world's list of humans, or -1 once it has been removed
+	int [] contactCell, contactSlot; // where the agent is stored in the contact index
+	long [] randomState; // the state of the agent's random stream
+	long seed; // the seed from which the agents' random streams are split
+	int numAllocated = 0; // the indices handed out so far
+	IntBag free = new IntBag(); // indices given back, to be handed out again
+	
+	// the points which show the displayed agents
+	int displayLimit;
+	GeomVectorField displayLayer;
+	MasonGeometry [] displayed = new MasonGeometry [0];
+	GeometryFactory factory = new GeometryFactory();
+	
+	/**
+	 * @param capacity - the number of agents expected
+	 * @param displayLayer - the layer in which displayed agents are drawn
+	 * @param displayLimit - the agents with indices below this are displayed
+	 * @param seed - the seed from which the agents' random streams are split
+	 */
+	public Population(int capacity, GeomVectorField displayLayer, int displayLimit, long seed){
+		capacity = Math.max(1, capacity);
+		homeX = new double [capacity];
+		homeY = new double [capacity];
+		x = new double [capacity];
+		y = new double [capacity];
+		targetX = new double [capacity];
+		targetY = new double [capacity];
+		activity = new byte [capacity];
+		stress = new float [capacity];
+		lastMove = new int [capacity];
+		removed = new boolean [capacity];
+		livePosition = new int [capacity];
+		contactCell = new int [capacity];
+		contactSlot = new int [capacity];
+		randomState = new long [capacity];
+		this.displayLayer = displayLayer;
+		this.displayLimit = displayLimit;
+		this.seed = seed;
+	}
+	
+	void ensureCapacity(int index){
+		if(index < x.length)
+			return;
+		
+		int capacity = Math.max(index + 1, 2 * x.length);
+		homeX = Arrays.copyOf(homeX, capacity);
+		homeY = Arrays.copyOf(homeY, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		targetX = Arrays.copyOf(targetX, capacity);
+		targetY = Arrays.copyOf(targetY, capacity);
+		activity = Arrays.copyOf(activity, capacity);
+		stress = Arrays.copyOf(stress, capacity);
+		lastMove = Arrays.copyOf(lastMove, capacity);
+		removed = Arrays.copyOf(removed, capacity);
+		livePosition = Arrays.copyOf(livePosition, capacity);
+		contactCell = Arrays.copyOf(contactCell, capacity);
+		contactSlot = Arrays.copyOf(contactSlot, capacity);
+		randomState = Arrays.copyOf(randomState, capacity);
+	}
+	
+	/** @return an index for a new agent */
+	int allocate(){
+		if(free.numObjs > 0)
+			return free.pop();
+		return numAllocated++;
+	}
+	
+	/** Give back the index of an agent which has left the process, to be handed out again */
+	void release(int index){
+		removed[index] = true;
+		livePosition[index] = -1;
+		contactCell[index] = contactSlot[index] = -1;
+		free.add(index);
+	}
+	
+	/**
+	 * Set up the state of a new agent with the given id
+	 */
+	void add(int index, int id, Coordinate position, Coordinate home, int initialActivity){
+		ensureCapacity(index);
+		homeX[index] = home.x;
+		homeY[index] = home.y;
+		x[index] = position.x;
+		y[index] = position.y;
+		targetX[index] = targetY[index] = Double.NaN;
+		activity[index] = (byte) initialActivity;
+		stress[index] = 0;
+		lastMove[index] = -1;
+		removed[index] = false;
+		livePosition[index] = -1;
+		contactCell[index] = contactSlot[index] = -1;
+		randomState[index] = SplitMix.split(seed, id);
+		
+		if(index < displayLimit){
+			if(index >= displayed.length)
+				displayed = Arrays.copyOf(displayed, Math.min(displayLimit, Math.max(index + 1, 2 * displayed.length)));
+			
+			// an index handed out again keeps its point, as points can't be taken out of the layer
+			if(displayed[index] != null){
+				moveTo(index, position.x, position.y);
+				setSick(index, 0);
+			}
+			else {
+				MasonGeometry mg = new MasonGeometry(factory.createPoint(new Coordinate(position.x, position.y)));
+				mg.isMovable = true;
+				mg.addIntegerAttribute("Sick", 0);
+				displayed[index] = mg;
+				displayLayer.addGeometry(mg);
+			}
+		}
+	}
+	
+	/**
+	 * Write out the state of the agent, for read() in another process
+	 */
+	void write(int index, DataOutput out) throws IOException {
+		out.writeDouble(homeX[index]);
+		out.writeDouble(homeY[index]);
+		out.writeDouble(x[index]);
+		out.writeDouble(y[index]);
+		out.writeDouble(targetX[index]);
+		out.writeDouble(targetY[index]);
+		out.writeByte(activity[index]);
+		out.writeFloat(stress[index]);
+		out.writeInt(lastMove[index]);
+		out.writeLong(randomState[index]);
+	}
+	
+	/**
+	 * Set up an agent arriving from another process with the state written out by write()
+	 */
+	void read(int index, int id, DataInput in) throws IOException {
+		Coordinate home = new Coordinate(in.readDouble(), in.readDouble());
+		Coordinate position = new Coordinate(in.readDouble(), in.readDouble());
+		add(index, id, position, home, 0);
+		targetX[index] = in.readDouble();
+		targetY[index] = in.readDouble();
+		activity[index] = in.readByte();
+		stress[index] = in.readFloat();
+		lastMove[index] = in.readInt();
+		randomState[index] = in.readLong();
+	}
+	
+	/**
+	 * Move the agent, and its point if it is displayed
+	 */
+	void moveTo(int index, double newX, double newY){
+		x[index] = newX;
+		y[index] = newY;
+		MasonGeometry mg = getDisplayed(index);
+		if(mg != null){
+			PointMoveTo p = new PointMoveTo();
+			p.setCoordinate(new Coordinate(newX, newY));
+			mg.geometry.apply(p);
+			mg.geometry.geometryChanged();
+		}
+	}
+	
+	/** Record the stage of the agent's illness on its point, if it is displayed */
+	void setSick(int index, int stage){
+		MasonGeometry mg = getDisplayed(index);
+		if(mg != null)
+			mg.addIntegerAttribute("Sick", stage);
+	}
+	
+	/** @return the point showing the agent, or null if it isn't displayed */
+	public MasonGeometry getDisplayed(int index){
+		return index < displayed.length ? displayed[index] : null;
+	}
+	
+	public double getX(int index){ return x[index]; }
+	public double getY(int index){ return y[index]; }
+	public double getHomeX(int index){ return homeX[index]; }
+	public double getHomeY(int index){ return homeY[index]; }
+	public int getActivity(int index){ return activity[index]; }
+	public double getStress(int index){ return stress[index]; }
+	public boolean isRemoved(int index){ return removed[index]; }
+	
+	/** @return the number of agents the arrays currently have room for */
+	public int getCapacity(){ return x.length; }
+}
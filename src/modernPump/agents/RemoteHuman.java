@@ -0,0 +1,106 @@
+package modernPump.agents;
+
+import java.io.Serializable;
+
+import modernPump.agents.diseases.Disease;
+import modernPump.objects.ContactGrid;
+import modernPump.sim.Region;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Stands in for a Human living in another region, near enough to the border to be in contact
+ * with the Humans of this one (see Region). It holds only what spreading infections needs: the
+ * Human's id and position, and the diseases it has had, as of the start of the tick. Infecting
+ * it passes the infection on to the Human's own region.
+ *
+ * @author swise
+ *
+ */
+public class RemoteHuman implements DiseaseVector, ContactGrid.Resident, Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	static GeometryFactory fa = new GeometryFactory();
+	
+	Region region; // the region in which the stand-in is kept
+	int owner; // the region in which the Human lives
+	int id;
+	double x, y;
+	long diseasesHad; // one bit per disease id
+	int contactCell = -1, contactSlot = -1;
+	
+	public RemoteHuman(Region region, int owner, int id, double x, double y, long diseasesHad){
+		this.region = region;
+		this.owner = owner;
+		this.id = id;
+		this.x = x;
+		this.y = y;
+		this.diseasesHad = diseasesHad;
+	}
+	
+	/** @return the region in which the Human lives */
+	public int getOwner(){ return owner; }
+	
+	@Override
+	public void acquireDisease(Disease d) {
+		diseasesHad |= 1L << d.getId();
+		region.infectRemote(this, d);
+	}
+	
+	@Override
+	public void loseDisease(Disease d) {
+	}
+	
+	@Override
+	public Geometry getGeometry() {
+		return fa.createPoint(new Coordinate(x, y));
+	}
+	
+	@Override
+	public double getX(){ return x; }
+	
+	@Override
+	public double getY(){ return y; }
+	
+	@Override
+	public boolean stillExists() {
+		return true;
+	}
+	
+	@Override
+	public void changeStage(int stage) {
+	}
+	
+	@Override
+	public void receiveTreatment(String type) {
+	}
+	
+	/** @return -1: the Human has no index in this region */
+	@Override
+	public int getIndex(){ return -1; }
+	
+	@Override
+	public int getId(){ return id; }
+	
+	@Override
+	public boolean infectedWith(int diseaseId){
+		return (diseasesHad & (1L << diseaseId)) != 0;
+	}
+	
+	@Override
+	public int getContactCell() { return contactCell; }
+	
+	@Override
+	public int getContactSlot() { return contactSlot; }
+	
+	@Override
+	public void setContactPosition(int cell, int slot) {
+		contactCell = cell;
+		contactSlot = slot;
+	}
+	
+	public String toString(){ return "remote id_" + id; }
+}
@@ -1,18 +1,11 @@
 package modernPump.agents.diseases;
 
 import modernPump.agents.DiseaseVector;
-import modernPump.agents.HumanTeleporter;
 import modernPump.sim.ModernPump;
-import sim.engine.Schedule;
-import sim.engine.SimState;
-import sim.engine.Steppable;
 import sim.util.Bag;
 
 public class Cholera extends Disease {
 	
-	int stage = 0;
-	int timeInStage = 0;
-	
 	int incubationPeriod = 4;//334; // ~1.5 days if timestep = 5 mins
 	int durationPeriod = 10;
 	
@@ -23,71 +16,63 @@ public class Cholera extends Disease {
 	public Cholera(){
 		name = "Cholera";
 	}
-
-
+	
 	@Override
-	public void step(SimState state) {
+	public boolean needsContacts(int host){
+		int stage = state.stage[host];
+		return state.hosts[host].stillExists() && state.timeInStage[host] <= durationPeriod
+				&& (stage == stage_ACUTE || stage == stage_INCUBATING);
+	}
+	
+	@Override
+	public boolean update(ModernPump world, int host, Bag exposed) {
+		
+		DiseaseVector h = state.hosts[host];
+		int stage = state.stage[host];
 		
 		// if the host has disappeared, Cholera can no longer be transmitted TODO verify
-		if(!host.stillExists()){
-			return;
+		if(!h.stillExists()){
+			return false;
 		}
 		
-		if(timeInStage > durationPeriod && host.stillExists()){
-			stage = stage_RECOVERED;
-			host.changeStage(stage);
-			host.loseDisease(this);
+		if(state.timeInStage[host] > durationPeriod && h.stillExists()){
+			state.setStage(host, stage_RECOVERED);
+			state.end(host, true);
+			h.changeStage(stage_RECOVERED);
+			h.loseDisease(this);
+			return false;
 		}
 		else if(stage == stage_ACUTE){
-			ModernPump world = (ModernPump) state;
-			Bag exposed = world.humanLayer.getObjectsWithinDistance(host.getGeometry(), transmissableRadius(host, null));
-			if (exposed.size() <= 1){
-				state.schedule.scheduleOnce(state.schedule.getTime() + 1, this);
-				return;
-			}
-			for (Object o : exposed) {
-				if (!((HumanTeleporter) o).infectedWith(name) && world.random.nextDouble() < transmissability(host, (DiseaseVector) o))
-					((HumanTeleporter) o).acquireDisease(copy());
-			}
+			if (exposed.size() <= 1)
+				return true;
+			transmit(world, host, exposed);
 			
-			timeInStage++;
-			state.schedule.scheduleOnce(state.schedule.getTime() + 1, this);
+			state.tick(host);
+			return true;
 		}
 		
 		else if(stage == stage_INCUBATING){
+			if (exposed.size() <= 1)
+				return true;
+			transmit(world, host, exposed);
 			
-			ModernPump world = (ModernPump) state;
-			Bag exposed = world.humanLayer.getObjectsWithinDistance(host.getGeometry(), transmissableRadius(host, null));
-			if (exposed.size() <= 1){
-				state.schedule.scheduleOnce(state.schedule.getTime() + 1, this);
-				return;
-			}
-			for (Object o : exposed) {
-				if (!((HumanTeleporter) o).infectedWith(name) && world.random.nextDouble() < transmissability(host, (DiseaseVector) o))
-					((HumanTeleporter) o).acquireDisease(copy());
+			state.tick(host);
+			if(state.timeInStage[host] > incubationPeriod){
+				state.setStage(host, stage_ACUTE);
+				h.changeStage(stage_ACUTE);
 			}
-
-			timeInStage++;
-			if(timeInStage > incubationPeriod){
-				stage = stage_ACUTE;
-				host.changeStage(stage);
-				timeInStage = 0;
-			}
-			state.schedule.scheduleOnce(state.schedule.getTime() + 1, this);
+			return true;
 		}
-	}
-
-	public void start(Schedule schedule){
-		stage = stage_INCUBATING;
-		host.changeStage(stage);
-		schedule.scheduleOnce(schedule.getTime() + 1, this);
+		return false;
 	}
 	
-	public Disease copy(){
-		return new Cholera();
-		// TODO: genetic variaaaation!
+	@Override
+	public void infect(ModernPump world, DiseaseVector host){
+		super.infect(world, host);
+		state.setStage(host.getIndex(), stage_INCUBATING);
+		host.changeStage(stage_INCUBATING);
 	}
-
+	
 	@Override
 	public double transmissableRadius(DiseaseVector host, DiseaseVector target){
 		return 30;
@@ -98,4 +83,4 @@ public class Cholera extends Disease {
 		return .1;
 	}
 	
-}
\ No newline at end of file
+}
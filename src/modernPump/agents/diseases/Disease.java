@@ -1,45 +1,72 @@
 package modernPump.agents.diseases;
 
 import modernPump.agents.DiseaseVector;
-import modernPump.agents.Human;
+import modernPump.objects.SplitMix;
 import modernPump.sim.ModernPump;
-import sim.engine.Schedule;
-import sim.engine.SimState;
-import sim.engine.Steppable;
-import sim.engine.Stoppable;
 import sim.util.Bag;
 
-public class Disease implements Steppable {
+/**
+ * A disease. One Disease object describes how the disease behaves; the state of each infection
+ * with it is kept in its EpidemicState, indexed by the hosts' agent indices.
+ */
+public class Disease {
 	
-	DiseaseVector host;
 	String name = "flu";
-	Stoppable stopper;
+	int id = -1; // the disease's position in the world's registry
+	long seed = 0; // the seed of the disease's transmission draws
+	public EpidemicState state = new EpidemicState(1024);
 	
 	public Disease(){
 	}
 	
-	public void start(Schedule schedule){
-		schedule.scheduleRepeating(new Steppable() {
-
-			@Override
-			public void step(SimState arg0) {
-				
-				// spread infection
-				
-				ModernPump world = (ModernPump) arg0;
-				Bag exposed = world.humanLayer.getObjectsWithinDistance(host.getGeometry(), transmissableRadius(host, null));
-				if (exposed.size() <= 1)
-					return;
-				for (Object o : exposed) {
-					if (!((Human) o).infectedWith(name) && world.random.nextDouble() < transmissability(host, (DiseaseVector) o))
-						((Human) o).acquireDisease(copy());
-				}
-				
-				// TODO simulate progression of disease itself
-			}
-
-		});
-
+	/**
+	 * Begin an infection of the given host: from the next tick on, the world's TransmissionEngine
+	 * will update it once per tick
+	 */
+	public void infect(ModernPump world, DiseaseVector host){
+		state.infect(host.getIndex(), host, (int) Math.max(0, world.schedule.getTime()));
+	}
+	
+	/**
+	 * @return whether the infection of the given host currently needs to know who the host is in contact with
+	 */
+	public boolean needsContacts(int host){
+		return true;
+	}
+	
+	/**
+	 * Run one tick of the infection of the given host
+	 *
+	 * @param world - the simulation
+	 * @param host - the agent index of the host
+	 * @param exposed - everyone within transmissable distance of the host (including the host
+	 * 		itself), or null if the infection didn't need contacts this tick
+	 * @return whether the infection should continue to be updated
+	 */
+	public boolean update(ModernPump world, int host, Bag exposed){
+		
+		// spread infection
+		if (exposed.size() > 1)
+			transmit(world, host, exposed);
+		
+		// TODO simulate progression of disease itself
+		return true;
+	}
+	
+	/**
+	 * Give each of the exposed agents who haven't already had the disease a chance to acquire it.
+	 * Each chance is decided by a draw hashed from the disease's seed, the tick and the ids of the two
+	 * agents, so it comes out the same whatever order the hosts are updated in, and whichever process
+	 * either of them is in
+	 */
+	void transmit(ModernPump world, int host, Bag exposed){
+		DiseaseVector source = state.hosts[host];
+		long tick = world.currentTick();
+		for (int i = 0; i < exposed.numObjs; i++) {
+			DiseaseVector h = (DiseaseVector) exposed.objs[i];
+			if (!h.infectedWith(id) && SplitMix.hash(seed, tick, source.getId(), h.getId()) < transmissability(source, h))
+				h.acquireDisease(this);
+		}
 	}
 	
 	public double virulence(DiseaseVector host, DiseaseVector target){
@@ -57,22 +84,38 @@ public class Disease implements Steppable {
 	public double incubationPeriod(DiseaseVector host, DiseaseVector target){
 		return 0;
 	}
-
-	public Disease copy(){
-		return new Disease();
-		// TODO: genetic variaaaation!
+	
+	public String getName(){
+		return name;
 	}
 	
-	@Override
-	public void step(SimState arg0) {
-		
+	/** @return the id given to the disease when it was registered with the world, or -1 if it hasn't been */
+	public int getId(){
+		return id;
 	}
 	
-	public String getName(){
-		return name;
+	/** Set by the world when the disease is registered */
+	public void setId(int id){
+		this.id = id;
+	}
+	
+	/** Set by the world when the disease is registered: the seed from which its transmission draws are hashed */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+	
+	/** @return the stage of the given host's infection, or EpidemicState.stage_SUSCEPTIBLE if it has none */
+	public int getStage(DiseaseVector host){
+		return state.getStage(host.getIndex());
+	}
+	
+	/** @return whether the given host currently has the disease */
+	public boolean isInfecting(DiseaseVector host){
+		return state.isInfected(host.getIndex());
 	}
 	
-	public void setHost(DiseaseVector v){
-		host = v;
+	/** @return whether the given host has ever had the disease */
+	public boolean hasInfected(DiseaseVector host){
+		return state.hasBeenInfected(host.getIndex());
 	}
-}
\ No newline at end of file
+}
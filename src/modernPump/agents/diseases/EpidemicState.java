@@ -0,0 +1,218 @@
+package modernPump.agents.diseases;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import modernPump.agents.DiseaseVector;
+import sim.util.IntBag;
+
+/**
+ * The state of every infection with one disease, held in primitive arrays indexed by the hosts'
+ * agent indices rather than in an object per infection. Whole-population scans of the state walk
+ * a few flat arrays, and infecting someone allocates nothing once the arrays have grown to fit
+ * the population.
+ *
+ * @author swise
+ *
+ */
+public class EpidemicState implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static final byte stage_SUSCEPTIBLE = 0;
+	
+	byte [] stage;
+	short [] timeInStage;
+	int [] infectionTime; // the tick at which the host was infected, or -1 if it never has been
+	DiseaseVector [] hosts;
+	
+	// one bit per host: whether it has ever been infected, is infected now, or has recovered
+	long [] everInfected, infected, recovered;
+	
+	// the hosts whose infections are being updated, and those infected since the last sweep
+	IntBag active = new IntBag(), incoming = new IntBag();
+	
+	public EpidemicState(int capacity){
+		capacity = Math.max(1, capacity);
+		stage = new byte [capacity];
+		timeInStage = new short [capacity];
+		infectionTime = new int [capacity];
+		Arrays.fill(infectionTime, -1);
+		hosts = new DiseaseVector [capacity];
+		everInfected = new long [words(capacity)];
+		infected = new long [words(capacity)];
+		recovered = new long [words(capacity)];
+	}
+	
+	static int words(int capacity){
+		return (capacity + 63) >>> 6;
+	}
+	
+	void ensureCapacity(int index){
+		if(index < stage.length)
+			return;
+		
+		int oldCapacity = stage.length, capacity = Math.max(index + 1, 2 * oldCapacity);
+		stage = Arrays.copyOf(stage, capacity);
+		timeInStage = Arrays.copyOf(timeInStage, capacity);
+		infectionTime = Arrays.copyOf(infectionTime, capacity);
+		Arrays.fill(infectionTime, oldCapacity, capacity, -1);
+		hosts = Arrays.copyOf(hosts, capacity);
+		everInfected = Arrays.copyOf(everInfected, words(capacity));
+		infected = Arrays.copyOf(infected, words(capacity));
+		recovered = Arrays.copyOf(recovered, words(capacity));
+	}
+	
+	/**
+	 * Record the infection of the host, which will be updated from the next sweep onward
+	 */
+	void infect(int index, DiseaseVector host, int time){
+		ensureCapacity(index);
+		hosts[index] = host;
+		infectionTime[index] = time;
+		stage[index] = stage_SUSCEPTIBLE;
+		timeInStage[index] = 0;
+		everInfected[index >>> 6] |= 1L << index;
+		infected[index >>> 6] |= 1L << index;
+		incoming.add(index);
+	}
+	
+	/**
+	 * Record that the host's infection has ended, whether or not it recovered
+	 */
+	void end(int index, boolean hasRecovered){
+		infected[index >>> 6] &= ~(1L << index);
+		if(hasRecovered)
+			recovered[index >>> 6] |= 1L << index;
+	}
+	
+	/**
+	 * Write out the host's record, for read() in another process
+	 */
+	public void write(int index, DataOutput out) throws IOException {
+		out.writeByte((hasBeenInfected(index) ? 1 : 0) | (isInfected(index) ? 2 : 0) | (hasRecovered(index) ? 4 : 0));
+		out.writeByte(getStage(index));
+		out.writeShort(getTimeInStage(index));
+		out.writeInt(getInfectionTime(index));
+	}
+	
+	/**
+	 * Set up the record of a host arriving from another process, as written out by write(). A
+	 * continuing infection is picked up again from the next sweep onward
+	 */
+	public void read(int index, DiseaseVector host, DataInput in) throws IOException {
+		ensureCapacity(index);
+		int flags = in.readByte();
+		stage[index] = in.readByte();
+		timeInStage[index] = in.readShort();
+		infectionTime[index] = in.readInt();
+		hosts[index] = (flags & 1) != 0 ? host : null;
+		setBit(everInfected, index, (flags & 1) != 0);
+		setBit(infected, index, (flags & 2) != 0);
+		setBit(recovered, index, (flags & 4) != 0);
+		if((flags & 2) != 0)
+			incoming.add(index);
+	}
+	
+	/**
+	 * Forget the records of the given hosts, who have left for another process, so that their
+	 * indices can be reused
+	 */
+	public void release(IntBag indices){
+		if(indices.numObjs == 0)
+			return;
+		long [] leaving = new long [everInfected.length];
+		for(int i = 0; i < indices.numObjs; i++){
+			int index = indices.objs[i];
+			if(index >= stage.length)
+				continue;
+			leaving[index >>> 6] |= 1L << index;
+			stage[index] = stage_SUSCEPTIBLE;
+			timeInStage[index] = 0;
+			infectionTime[index] = -1;
+			hosts[index] = null;
+			setBit(everInfected, index, false);
+			setBit(infected, index, false);
+			setBit(recovered, index, false);
+		}
+		drop(active, leaving);
+		drop(incoming, leaving);
+	}
+	
+	// take the hosts whose bits are set out of the list, keeping the others in order
+	static void drop(IntBag hosts, long [] bits){
+		int kept = 0;
+		for(int i = 0; i < hosts.numObjs; i++){
+			int index = hosts.objs[i];
+			if((bits[index >>> 6] & (1L << index)) == 0)
+				hosts.objs[kept++] = index;
+		}
+		hosts.numObjs = kept;
+	}
+	
+	static void setBit(long [] bits, int index, boolean value){
+		if(value)
+			bits[index >>> 6] |= 1L << index;
+		else
+			bits[index >>> 6] &= ~(1L << index);
+	}
+	
+	/** @return whether the host has ever been infected */
+	public boolean hasBeenInfected(int index){
+		int word = index >>> 6;
+		return word < everInfected.length && (everInfected[word] & (1L << index)) != 0;
+	}
+	
+	/** @return whether the host is infected now */
+	public boolean isInfected(int index){
+		int word = index >>> 6;
+		return word < infected.length && (infected[word] & (1L << index)) != 0;
+	}
+	
+	/** @return whether the host has recovered */
+	public boolean hasRecovered(int index){
+		int word = index >>> 6;
+		return word < recovered.length && (recovered[word] & (1L << index)) != 0;
+	}
+	
+	static int count(long [] bits){
+		int total = 0;
+		for(long word: bits)
+			total += Long.bitCount(word);
+		return total;
+	}
+	
+	/** @return the number of hosts who have ever been infected */
+	public int getNumEverInfected(){ return count(everInfected); }
+	
+	/** @return the number of hosts infected now */
+	public int getNumInfected(){ return count(infected); }
+	
+	/** @return the number of hosts who have recovered */
+	public int getNumRecovered(){ return count(recovered); }
+	
+	/** @return the number of hosts in a population of the given size who have never been infected */
+	public int getNumSusceptible(int population){ return population - getNumEverInfected(); }
+	
+	public int getStage(int index){ return index < stage.length ? stage[index] : stage_SUSCEPTIBLE; }
+	public int getTimeInStage(int index){ return index < timeInStage.length ? timeInStage[index] : 0; }
+	public int getInfectionTime(int index){ return index < infectionTime.length ? infectionTime[index] : -1; }
+	public DiseaseVector getHost(int index){ return index < hosts.length ? hosts[index] : null; }
+	
+	public void setStage(int index, int s){
+		stage[index] = (byte) s;
+		timeInStage[index] = 0;
+	}
+	
+	/** Advance the time the host has spent in its current stage by one tick */
+	public void tick(int index){
+		if(timeInStage[index] < Short.MAX_VALUE)
+			timeInStage[index]++;
+	}
+	
+	/** @return the number of infections currently being updated */
+	public int getNumActive(){ return active.numObjs + incoming.numObjs; }
+}
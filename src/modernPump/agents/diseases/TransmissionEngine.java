@@ -0,0 +1,265 @@
+package modernPump.agents.diseases;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import modernPump.agents.DiseaseVector;
+import modernPump.objects.ContactGrid;
+import modernPump.sim.ModernPump;
+import modernPump.sim.StripPartition;
+import modernPump.sim.TickMetrics;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Bag;
+import sim.util.DoubleBag;
+import sim.util.IntBag;
+
+/**
+ * Runs the spread and progression of every active infection once per tick. Rather than each
+ * infection being scheduled separately, the engine collects the infections which are able to
+ * spread, orders their hosts by cell in the contact index and makes one pass over them, so
+ * that hosts sharing a cell also share the walk of the grid which finds their contacts.
+ *
+ * Infections acquired during a sweep are held back until the next tick, just as a newly
+ * scheduled Disease would only have been stepped in the following tick. Each disease is swept
+ * in turn, in the order in which they were added to the world.
+ *
+ * When the world is split into strips, the contacts of the hosts are found in parallel. The
+ * sorted hosts run row by row from the south of the world to the north, and are taken a band at a
+ * time, each thread finding the contacts of a run of the band. Nobody moves while the infections
+ * spread, so each thread can read the rows of cells around its run, including those on either side
+ * of it, without anyone having to copy them. The infections of the band are then updated one by
+ * one in the same order as in a serial sweep, so splitting the world changes nothing about the
+ * outcome. Taking the hosts a band at a time bounds the contacts held at once, and shares the work
+ * evenly however the infections are spread over the strips.
+ *
+ * @author swise
+ *
+ */
+public class TransmissionEngine implements Steppable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	static final byte status_IDLE = 0, status_SEARCHING = 1, status_FINISHED = 2;
+	
+	public static int hostsPerSearch = 256; // the number of hosts whose contacts each thread finds before they are used
+	
+	// scratch space, reused between sweeps
+	long [] keys = new long [16];
+	byte [] status = new byte [16];
+	Bag exposed = new Bag();
+	ContactSearch search = new ContactSearch(); // finds the contacts of hosts in serial sweeps
+	ContactSearch [] stripSearches = new ContactSearch [0]; // find the contacts of hosts in parallel sweeps, one per strip
+	
+	long numQueries = 0, numCandidates = 0; // the work done in the current tick
+	
+	@Override
+	public void step(SimState state) {
+		ModernPump world = (ModernPump) state;
+		TickMetrics metrics = world.metrics;
+		if(metrics != null) metrics.beginPhase(TickMetrics.phase_TRANSMISSION);
+		for(Disease d: world.diseases)
+			sweep(world, d);
+		collectWork(search);
+		for(ContactSearch c: stripSearches)
+			collectWork(c);
+		if(metrics != null){
+			metrics.contactQueries += numQueries;
+			metrics.candidatesExamined += numCandidates;
+			metrics.endPhase(TickMetrics.phase_TRANSMISSION);
+		}
+		numQueries = numCandidates = 0;
+	}
+	
+	/**
+	 * Update every active infection with the given disease once
+	 */
+	void sweep(ModernPump world, Disease d) {
+		
+		ContactGrid grid = world.contactIndex;
+		EpidemicState epidemic = d.state;
+		IntBag active = epidemic.active;
+		
+		// bring in the infections acquired since the last sweep
+		active.addAll(epidemic.incoming);
+		epidemic.incoming.clear();
+		
+		int numActive = active.numObjs;
+		if(keys.length < numActive){
+			keys = new long [2 * numActive];
+			status = new byte [2 * numActive];
+		}
+		
+		// order the infections which need contacts by the cell of their hosts. Each key holds the
+		// cell in its upper half and the position in the active list in its lower half
+		int numSearching = 0;
+		for(int i = 0; i < numActive; i++){
+			int host = active.objs[i];
+			if(!d.needsContacts(host)){
+				status[i] = status_IDLE;
+				continue;
+			}
+			status[i] = status_SEARCHING;
+			DiseaseVector h = epidemic.hosts[host];
+			keys[numSearching++] = ((long) grid.cellOf(h.getX(), h.getY()) << 32) | i;
+		}
+		Arrays.sort(keys, 0, numSearching);
+		
+		// the batched neighbor pass
+		StripPartition strips = world.strips;
+		if(strips == null || strips.getNumStrips() == 1){
+			search.start(grid, d, 0, numSearching);
+			for(int k = 0; k < numSearching; k++){
+				int cell = (int) (keys[k] >>> 32), index = (int) keys[k];
+				int host = active.objs[index];
+				exposed.clear();
+				search.expose(epidemic.hosts[host], cell, exposed);
+				if(!d.update(world, host, exposed))
+					status[index] = status_FINISHED;
+			}
+		}
+		else {
+			if(stripSearches.length != strips.getNumStrips()){
+				stripSearches = new ContactSearch [strips.getNumStrips()];
+				for(int s = 0; s < stripSearches.length; s++)
+					stripSearches[s] = new ContactSearch();
+			}
+			
+			// find the contacts of a band of the sorted hosts at once, each search taking a run of the
+			// band, then update their infections in order, just as in a serial sweep, and move on
+			for(int from = 0; from < numSearching; ){
+				for(ContactSearch c: stripSearches){
+					int to = Math.min(numSearching, from + hostsPerSearch);
+					c.start(grid, d, from, to);
+					from = to;
+				}
+				strips.invokeAll(Arrays.asList(stripSearches));
+				
+				for(ContactSearch c: stripSearches){
+					int start = 0;
+					for(int k = c.from; k < c.to; k++){
+						int index = (int) keys[k], host = active.objs[index], end = c.ends.objs[k - c.from];
+						exposed.clear();
+						for(int j = start; j < end; j++)
+							exposed.add(c.found.objs[j]);
+						start = end;
+						if(!d.update(world, host, exposed))
+							status[index] = status_FINISHED;
+					}
+					c.found.clear();
+				}
+			}
+		}
+		
+		// progress the infections which are not currently spreading
+		for(int i = 0; i < numActive; i++){
+			if(status[i] == status_IDLE && !d.update(world, active.objs[i], null))
+				status[i] = status_FINISHED;
+		}
+		
+		// drop the infections which have run their course
+		int kept = 0;
+		for(int i = 0; i < numActive; i++){
+			if(status[i] != status_FINISHED)
+				active.objs[kept++] = active.objs[i];
+			else
+				epidemic.end(active.objs[i], epidemic.hasRecovered(active.objs[i]));
+		}
+		active.numObjs = kept;
+	}
+	
+	void collectWork(ContactSearch c){
+		numQueries += c.numQueries;
+		numCandidates += c.numCandidates;
+		c.numQueries = c.numCandidates = 0;
+	}
+	
+	/**
+	 * Finds the contacts of a run of the sorted hosts, only walking the grid again when a host is in a
+	 * different cell from the last, or can reach further than it. Run as a task, it finds the contacts
+	 * of every host in the run and holds on to them until they are used
+	 */
+	class ContactSearch implements Callable <Object>, Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		ContactGrid grid;
+		Disease disease;
+		int from, to; // the run of keys searched
+		
+		Bag candidates = new Bag();
+		DoubleBag candidateXs = new DoubleBag(), candidateYs = new DoubleBag();
+		int lastCell = -1;
+		double lastDistance = -1;
+		long numQueries = 0, numCandidates = 0;
+		
+		// the contacts found for the run: those of the k-th host end at ends[k - from]
+		Bag found = new Bag();
+		IntBag ends = new IntBag();
+		
+		void start(ContactGrid grid, Disease disease, int from, int to){
+			this.grid = grid;
+			this.disease = disease;
+			this.from = from;
+			this.to = to;
+			lastCell = -1;
+			lastDistance = -1;
+		}
+		
+		/**
+		 * Add everyone within transmissable distance of the host, in the given cell, to exposed
+		 */
+		void expose(DiseaseVector h, int cell, Bag exposed){
+			double distance = disease.transmissableRadius(h, null);
+			
+			// only walk the grid again if this host can reach further than the last set of candidates
+			if(cell != lastCell || distance > lastDistance){
+				grid.getCandidates(cell, distance, candidates, candidateXs, candidateYs);
+				numQueries++;
+				lastCell = cell;
+				lastDistance = distance;
+			}
+			
+			double x = h.getX(), y = h.getY();
+			double distSq = distance * distance;
+			numCandidates += candidates.numObjs;
+			for(int j = 0; j < candidates.numObjs; j++){
+				double dx = candidateXs.objs[j] - x, dy = candidateYs.objs[j] - y;
+				if(dx * dx + dy * dy <= distSq)
+					exposed.add(candidates.objs[j]);
+			}
+		}
+		
+		public Object call(){
+			found.clear();
+			ends.clear();
+			IntBag active = disease.state.active;
+			for(int k = from; k < to; k++){
+				expose(disease.state.hosts[active.objs[(int) keys[k]]], (int) (keys[k] >>> 32), found);
+				ends.add(found.numObjs);
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Add everyone within transmissable distance of the agent to exposed, as though it were a host of
+	 * the given disease, with the same search as a serial sweep. For measuring the search on its own
+	 * (see Benchmarks): the work is not counted in any tick's metrics
+	 */
+	public void expose(ModernPump world, Disease d, DiseaseVector h, Bag exposed){
+		ContactGrid grid = world.contactIndex;
+		search.start(grid, d, 0, 0);
+		search.expose(h, grid.cellOf(h.getX(), h.getY()), exposed);
+		search.numQueries = search.numCandidates = 0;
+	}
+	
+	/** @return the number of infections currently being tracked */
+	public int getNumActive(ModernPump world){
+		int total = 0;
+		for(Disease d: world.diseases)
+			total += d.state.getNumActive();
+		return total;
+	}
+}
@@ -0,0 +1,262 @@
+package modernPump.objects;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import sim.util.Bag;
+import sim.util.DoubleBag;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A uniform grid over the agents of the simulation, used to answer fixed-radius neighbor
+ * queries (e.g. "who is within transmission distance of this host?") without walking the
+ * quadtree of a GeomVectorField. Cells are sized to the contact radius, so a query only
+ * ever has to look at the 3x3 block of cells around the querying point.
+ *
+ * Objects falling outside the given extent are clamped into the border cells, so that the
+ * exact distance test still gives the correct answer for them.
+ *
+ * Residents keep track of the cell and slot in which they are stored, so that moving or
+ * removing one is a constant-time swap rather than a rebuild of the whole index.
+ *
+ * @author swise
+ *
+ */
+public class ContactGrid implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** Objects stored in the grid remember where they are stored */
+	public interface Resident {
+		public int getContactCell();
+		public int getContactSlot();
+		public void setContactPosition(int cell, int slot);
+	}
+	
+	double minX, minY, cellSize;
+	int width, height;
+	
+	// per-cell storage: the members of the cell and their positions
+	Resident [][] members;
+	double [][] xs, ys;
+	int [] sizes;
+	
+	int numObjects = 0;
+	
+	/**
+	 * @param extent - the area to be covered by the grid
+	 * @param cellSize - the size of a grid cell. Should be at least the typical query distance
+	 */
+	public ContactGrid(Envelope extent, double cellSize){
+		this.minX = extent.getMinX();
+		this.minY = extent.getMinY();
+		this.cellSize = cellSize;
+		this.width = Math.max(1, (int) Math.ceil(extent.getWidth() / cellSize));
+		this.height = Math.max(1, (int) Math.ceil(extent.getHeight() / cellSize));
+		
+		members = new Resident [width * height][];
+		xs = new double [width * height][];
+		ys = new double [width * height][];
+		sizes = new int [width * height];
+	}
+	
+	int cellX(double x){
+		int i = (int) Math.floor((x - minX) / cellSize);
+		if(i < 0) return 0;
+		else if(i >= width) return width - 1;
+		return i;
+	}
+	
+	int cellY(double y){
+		int j = (int) Math.floor((y - minY) / cellSize);
+		if(j < 0) return 0;
+		else if(j >= height) return height - 1;
+		return j;
+	}
+	
+	/** @return the index of the cell containing the given position */
+	public int cellOf(double x, double y){
+		return cellY(y) * width + cellX(x);
+	}
+	
+	/** @return the row of cells containing the given y position */
+	public int rowOf(double y){
+		return cellY(y);
+	}
+	
+	/**
+	 * Add the object to the grid at the given position
+	 */
+	public void add(Resident o, Coordinate c){
+		insert(o, cellOf(c.x, c.y), c.x, c.y);
+		numObjects++;
+	}
+	
+	/**
+	 * Update the position of an object already in the grid. If it stays within its cell, only
+	 * its stored position changes; otherwise it is swapped out of its old cell and into the new one.
+	 */
+	public void move(Resident o, Coordinate c){
+		move(o, c.x, c.y);
+	}
+	
+	/**
+	 * As move(o, c), with the new position given by its coordinates
+	 */
+	public void move(Resident o, double x, double y){
+		int cell = o.getContactCell();
+		if(cell < 0) return; // not in the grid
+		
+		int newCell = cellOf(x, y);
+		if(newCell == cell){
+			int slot = o.getContactSlot();
+			xs[cell][slot] = x;
+			ys[cell][slot] = y;
+		}
+		else {
+			extract(o);
+			insert(o, newCell, x, y);
+		}
+	}
+	
+	/**
+	 * Take the object out of the grid
+	 */
+	public void remove(Resident o){
+		if(o.getContactCell() < 0) return; // not in the grid
+		extract(o);
+		o.setContactPosition(-1, -1);
+		numObjects--;
+	}
+	
+	void insert(Resident o, int cell, double x, double y){
+		int size = sizes[cell];
+		if(members[cell] == null){
+			members[cell] = new Resident [4];
+			xs[cell] = new double [4];
+			ys[cell] = new double [4];
+		}
+		else if(size == members[cell].length){
+			int newLength = size * 2;
+			members[cell] = Arrays.copyOf(members[cell], newLength);
+			xs[cell] = Arrays.copyOf(xs[cell], newLength);
+			ys[cell] = Arrays.copyOf(ys[cell], newLength);
+		}
+		members[cell][size] = o;
+		xs[cell][size] = x;
+		ys[cell][size] = y;
+		sizes[cell] = size + 1;
+		o.setContactPosition(cell, size);
+	}
+	
+	// swap the last member of the cell into the object's slot
+	void extract(Resident o){
+		int cell = o.getContactCell(), slot = o.getContactSlot();
+		int last = sizes[cell] - 1;
+		if(slot != last){
+			Resident moved = members[cell][last];
+			members[cell][slot] = moved;
+			xs[cell][slot] = xs[cell][last];
+			ys[cell][slot] = ys[cell][last];
+			moved.setContactPosition(cell, slot);
+		}
+		members[cell][last] = null;
+		sizes[cell] = last;
+	}
+	
+	/** Remove everything from the grid, keeping the cell storage around for reuse */
+	public void clear(){
+		for(int i = 0; i < sizes.length; i++){
+			if(sizes[i] == 0) continue;
+			for(int k = 0; k < sizes[i]; k++){
+				members[i][k].setContactPosition(-1, -1);
+				members[i][k] = null;
+			}
+			sizes[i] = 0;
+		}
+		numObjects = 0;
+	}
+	
+	/**
+	 * Find all of the objects within the given distance of the given position. The result is
+	 * written into the provided Bag (which is cleared first) so that callers can reuse a single
+	 * Bag across many queries.
+	 *
+	 * @param c - the position around which to search
+	 * @param distance - the search radius (inclusive, as in Geometry.isWithinDistance)
+	 * @param result - the Bag to be filled
+	 * @return the filled Bag
+	 */
+	public Bag getObjectsWithinDistance(Coordinate c, double distance, Bag result){
+		result.clear();
+		
+		int x0 = cellX(c.x - distance), x1 = cellX(c.x + distance);
+		int y0 = cellY(c.y - distance), y1 = cellY(c.y + distance);
+		double distSq = distance * distance;
+		
+		for(int j = y0; j <= y1; j++){
+			for(int i = x0; i <= x1; i++){
+				int cell = j * width + i;
+				int size = sizes[cell];
+				if(size == 0) continue;
+				Resident [] cellMembers = members[cell];
+				double [] cellXs = xs[cell], cellYs = ys[cell];
+				for(int k = 0; k < size; k++){
+					double dx = cellXs[k] - c.x, dy = cellYs[k] - c.y;
+					if(dx * dx + dy * dy <= distSq)
+						result.add(cellMembers[k]);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Collect every object in the block of cells around the given cell which could lie within the
+	 * given distance of a point in that cell, along with their positions. This lets several queries
+	 * made from the same cell share a single walk of the grid: each caller then only has to run the
+	 * exact distance test against the candidates.
+	 *
+	 * @param cell - the index of the central cell
+	 * @param distance - the search radius
+	 * @param result - filled with the candidate objects (cleared first)
+	 * @param xResult - filled with the x positions of the candidates (cleared first)
+	 * @param yResult - filled with the y positions of the candidates (cleared first)
+	 * @return the number of candidates found
+	 */
+	public int getCandidates(int cell, double distance, Bag result, DoubleBag xResult, DoubleBag yResult){
+		result.clear();
+		xResult.clear();
+		yResult.clear();
+		
+		int reach = (int) Math.ceil(distance / cellSize);
+		int ci = cell % width, cj = cell / width;
+		int x0 = Math.max(0, ci - reach), x1 = Math.min(width - 1, ci + reach);
+		int y0 = Math.max(0, cj - reach), y1 = Math.min(height - 1, cj + reach);
+		
+		for(int j = y0; j <= y1; j++){
+			for(int i = x0; i <= x1; i++){
+				int c = j * width + i;
+				int size = sizes[c];
+				if(size == 0) continue;
+				Resident [] cellMembers = members[c];
+				double [] cellXs = xs[c], cellYs = ys[c];
+				for(int k = 0; k < size; k++){
+					result.add(cellMembers[k]);
+					xResult.add(cellXs[k]);
+					yResult.add(cellYs[k]);
+				}
+			}
+		}
+		return result.numObjs;
+	}
+	
+	/** @return the number of objects stored in the grid */
+	public int size(){ return numObjects; }
+	
+	public int getWidth(){ return width; }
+	public int getHeight(){ return height; }
+	public double getCellSize(){ return cellSize; }
+}
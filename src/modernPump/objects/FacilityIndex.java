@@ -0,0 +1,220 @@
+package modernPump.objects;
+
+import java.io.Serializable;
+
+import sim.util.Bag;
+import sim.util.DoubleBag;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A static KD-tree over a set of point facilities, answering nearest- and k-nearest-facility
+ * queries. The tree is stored implicitly: the facilities are sorted so that the median of each
+ * range [lo, hi) sits at its middle, with the lower half to the left and the upper half to the
+ * right, splitting on x and y alternately.
+ *
+ * @author swise
+ *
+ */
+public class FacilityIndex implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	MasonGeometry [] facilities;
+	double [] xs, ys;
+	
+	Query query = new Query(); // scratch space for callers who don't bring their own
+	
+	/**
+	 * Scratch space for queries: the best candidates so far, nearest first. Any number of threads
+	 * can query the index at once, so long as each has a Query of its own
+	 */
+	public static class Query implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		MasonGeometry [] best = new MasonGeometry [1];
+		double [] bestDistSq = new double [1];
+		int numBest, k;
+	}
+	
+	/**
+	 * @param geometries - the facilities to index, as MasonGeometries. Facilities which are not points
+	 * are indexed by their centroids
+	 */
+	public FacilityIndex(Bag geometries){
+		int n = geometries.size();
+		facilities = new MasonGeometry [n];
+		xs = new double [n];
+		ys = new double [n];
+		for(int i = 0; i < n; i++){
+			MasonGeometry mg = (MasonGeometry) geometries.get(i);
+			Coordinate c = mg.geometry.getNumPoints() == 1 ? mg.geometry.getCoordinate() : mg.geometry.getCentroid().getCoordinate();
+			facilities[i] = mg;
+			xs[i] = c.x;
+			ys[i] = c.y;
+		}
+		build(0, n, 0);
+	}
+	
+	/**
+	 * Arrange the facilities in [lo, hi) so that the median along the given axis is in the middle
+	 */
+	void build(int lo, int hi, int axis){
+		if(hi - lo <= 1)
+			return;
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, axis == 0 ? xs : ys);
+		build(lo, mid, 1 - axis);
+		build(mid + 1, hi, 1 - axis);
+	}
+	
+	// quickselect: put the k-th smallest value of keys[lo..hi] at k, with smaller values before it and larger after
+	void select(int lo, int hi, int k, double [] keys){
+		while(lo < hi){
+			double pivot = keys[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while(i <= j){
+				while(keys[i] < pivot) i++;
+				while(keys[j] > pivot) j--;
+				if(i <= j)
+					swap(i++, j--);
+			}
+			if(k <= j) hi = j;
+			else if(k >= i) lo = i;
+			else return;
+		}
+	}
+	
+	void swap(int i, int j){
+		MasonGeometry f = facilities[i]; facilities[i] = facilities[j]; facilities[j] = f;
+		double x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+		double y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+	}
+	
+	/**
+	 * @return the facility nearest to the given point, or null if there are none
+	 */
+	public MasonGeometry nearest(Coordinate c){
+		return nearest(c, Double.MAX_VALUE);
+	}
+	
+	/**
+	 * @return the facility nearest to the given point, or null if there are none within maxDist (inclusive)
+	 */
+	public MasonGeometry nearest(Coordinate c, double maxDist){
+		return nearest(c, maxDist, query);
+	}
+	
+	/**
+	 * As nearest(c, maxDist), using the given scratch space
+	 */
+	public MasonGeometry nearest(Coordinate c, double maxDist, Query q){
+		if(query(c, 1, maxDist, q) == 0)
+			return null;
+		return q.best[0];
+	}
+	
+	/**
+	 * @return the distance from the given point to the nearest facility, or Double.MAX_VALUE if there are none
+	 */
+	public double distanceToNearest(Coordinate c){
+		return distanceToNearest(c, query);
+	}
+	
+	/**
+	 * As distanceToNearest(c), using the given scratch space
+	 */
+	public double distanceToNearest(Coordinate c, Query q){
+		if(query(c, 1, Double.MAX_VALUE, q) == 0)
+			return Double.MAX_VALUE;
+		return Math.sqrt(q.bestDistSq[0]);
+	}
+	
+	/**
+	 * Find the (up to) k facilities nearest to the given point within maxDist (inclusive), nearest first
+	 *
+	 * @param result - filled with the facilities found. Cleared first
+	 * @param distances - if not null, filled with the distances to the facilities found. Cleared first
+	 * @return the number of facilities found
+	 */
+	public int kNearest(Coordinate c, int k, double maxDist, Bag result, DoubleBag distances){
+		result.clear();
+		if(distances != null)
+			distances.clear();
+		
+		int found = query(c, k, maxDist, query);
+		for(int i = 0; i < found; i++){
+			result.add(query.best[i]);
+			if(distances != null)
+				distances.add(Math.sqrt(query.bestDistSq[i]));
+		}
+		return found;
+	}
+	
+	/**
+	 * Fill the query's best and bestDistSq with the (up to) k nearest facilities within maxDist
+	 * @return the number found
+	 */
+	int query(Coordinate c, int k, double maxDist, Query q){
+		if(k <= 0 || maxDist < 0)
+			return 0;
+		if(q.best.length < k){
+			q.best = new MasonGeometry [k];
+			q.bestDistSq = new double [k];
+		}
+		q.k = k;
+		q.numBest = 0;
+		double maxDistSq = maxDist == Double.MAX_VALUE ? Double.MAX_VALUE : maxDist * maxDist;
+		search(0, facilities.length, 0, c.x, c.y, maxDistSq, q);
+		return q.numBest;
+	}
+	
+	void search(int lo, int hi, int axis, double x, double y, double maxDistSq, Query q){
+		if(lo >= hi)
+			return;
+		
+		int mid = (lo + hi) >>> 1;
+		double dx = xs[mid] - x, dy = ys[mid] - y;
+		consider(mid, dx * dx + dy * dy, maxDistSq, q);
+		
+		// search the side of the split holding the point first, and the other only if it might hold anything nearer
+		double diff = axis == 0 ? x - xs[mid] : y - ys[mid];
+		if(diff < 0){
+			search(lo, mid, 1 - axis, x, y, maxDistSq, q);
+			if(diff * diff <= bound(maxDistSq, q))
+				search(mid + 1, hi, 1 - axis, x, y, maxDistSq, q);
+		}
+		else {
+			search(mid + 1, hi, 1 - axis, x, y, maxDistSq, q);
+			if(diff * diff <= bound(maxDistSq, q))
+				search(lo, mid, 1 - axis, x, y, maxDistSq, q);
+		}
+	}
+	
+	// the squared distance within which a facility must lie to be of interest
+	double bound(double maxDistSq, Query q){
+		return q.numBest < q.k ? maxDistSq : Math.min(maxDistSq, q.bestDistSq[q.numBest - 1]);
+	}
+	
+	// insert the facility into the sorted list of the best candidates, if it belongs there
+	void consider(int index, double distSq, double maxDistSq, Query q){
+		if(distSq > bound(maxDistSq, q))
+			return;
+		if(q.numBest == q.k && distSq >= q.bestDistSq[q.numBest - 1])
+			return;
+		
+		int i = q.numBest < q.k ? q.numBest++ : q.numBest - 1;
+		while(i > 0 && q.bestDistSq[i - 1] > distSq){
+			q.best[i] = q.best[i - 1];
+			q.bestDistSq[i] = q.bestDistSq[i - 1];
+			i--;
+		}
+		q.best[i] = facilities[index];
+		q.bestDistSq[i] = distSq;
+	}
+	
+	/** @return the number of facilities indexed */
+	public int size(){ return facilities.length; }
+}
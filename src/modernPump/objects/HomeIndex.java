@@ -0,0 +1,401 @@
+package modernPump.objects;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import sim.util.IntBag;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * An index over a set of (fixed) home locations which can draw a home uniformly at random from
+ * among all of those lying within a given band of distances of a point, looking only at the homes
+ * near that band.
+ *
+ * The homes are stored grid cell by grid cell in row-major order, so each run of cells along a
+ * row is a contiguous range of the storage, and the homes in any run of cells can be counted
+ * (or indexed into) in constant time. Each row of cells an annulus touches can be split 
+ * analytically into runs of cells which lie entirely within the annulus, cells which lie entirely 
+ * within its hole, and the few cells along its two boundaries.
+ *
+ * @author swise
+ *
+ */
+public class HomeIndex implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	static final double epsilon = 1e-6; // keeps the classification of cells conservative
+	public static int maxCoverDraws = 32; // draws from the cells covering a band before testing its homes individually
+	
+	double cellSize;
+	double minX, minY;
+	int width, height;
+	
+	// homes waiting to be indexed
+	IntBag pendingOwners = new IntBag();
+	ArrayList <Coordinate> pendingHomes = new ArrayList <Coordinate> ();
+	
+	// the homes, ordered by cell
+	int [] owners; // the ids of the agents living in them
+	double [] xs, ys;
+	boolean [] alive;
+	int [] cellStart; // the homes of cell c are stored in [cellStart[c], cellStart[c+1])
+	int numDead = 0;
+	
+	Sampler sampler = new Sampler(); // scratch space for callers who don't bring their own
+	
+	/**
+	 * Scratch space for sampling. Any number of threads can sample the index at once, so long as
+	 * each has a Sampler of its own
+	 */
+	public static class Sampler implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		IntBag partial = new IntBag();
+		IntBag runs = new IntBag(); // pairs of start and end indices of runs
+		IntBag runTotals = new IntBag(); // the number of homes in each run and all of the runs before it
+		int [] excluded = new int [6]; // pairs of first and last cells of the runs of a row which needn't be tested
+		boolean [] excludedIsFull = new boolean [3];
+	}
+	
+	public HomeIndex(double cellSize){
+		this.cellSize = cellSize;
+	}
+	
+	/**
+	 * Add the home of the agent with the given id to the index. It will be available for sampling
+	 * after the next call to build()
+	 */
+	public void add(int owner, Coordinate home){
+		pendingOwners.add(owner);
+		pendingHomes.add(home);
+	}
+	
+	/**
+	 * Sort the homes which have been added into cell order
+	 */
+	public void build(){
+		
+		int n = pendingOwners.size();
+		Envelope e = new Envelope();
+		for(Coordinate c: pendingHomes)
+			e.expandToInclude(c);
+		
+		minX = e.getMinX();
+		minY = e.getMinY();
+		width = Math.max(1, (int) Math.ceil(e.getWidth() / cellSize) + 1);
+		height = Math.max(1, (int) Math.ceil(e.getHeight() / cellSize) + 1);
+		
+		// counting sort of the homes by cell
+		int [] cellOf = new int [n];
+		cellStart = new int [width * height + 1];
+		for(int k = 0; k < n; k++){
+			Coordinate c = pendingHomes.get(k);
+			cellOf[k] = cellY(c.y) * width + cellX(c.x);
+			cellStart[cellOf[k] + 1]++;
+		}
+		for(int c = 0; c < width * height; c++)
+			cellStart[c + 1] += cellStart[c];
+		
+		owners = new int [n];
+		xs = new double [n];
+		ys = new double [n];
+		alive = new boolean [n];
+		int [] filled = new int [width * height];
+		for(int k = 0; k < n; k++){
+			int index = cellStart[cellOf[k]] + filled[cellOf[k]]++;
+			Coordinate c = pendingHomes.get(k);
+			owners[index] = pendingOwners.get(k);
+			xs[index] = c.x;
+			ys[index] = c.y;
+			alive[index] = true;
+		}
+		numDead = 0;
+		
+		pendingOwners.clear();
+		pendingHomes.clear();
+	}
+	
+	/**
+	 * Stop sampling the given home. Homes are only marked as dead and skipped during sampling; once
+	 * enough of them have died, compact() rebuilds the index without them
+	 */
+	public void remove(int owner, Coordinate home){
+		int cell = cellY(home.y) * width + cellX(home.x);
+		for(int k = cellStart[cell]; k < cellStart[cell + 1]; k++){
+			if(owners[k] == owner && alive[k]){
+				alive[k] = false;
+				numDead++;
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Rebuild the index without its dead homes, if enough of them have died. The homes are kept in
+	 * the order in which they are stored, so the index comes out the same whatever order they died in
+	 */
+	public void compact(){
+		if(owners == null || numDead <= .1 * owners.length)
+			return;
+		for(int k = 0; k < owners.length; k++)
+			if(alive[k])
+				add(owners[k], new Coordinate(xs[k], ys[k]));
+		build();
+	}
+	
+	int cellX(double x){
+		return Math.min(width - 1, Math.max(0, (int) Math.floor((x - minX) / cellSize)));
+	}
+	
+	int cellY(double y){
+		return Math.min(height - 1, Math.max(0, (int) Math.floor((y - minY) / cellSize)));
+	}
+	
+	// the first cell whose left edge is at or right of x
+	int firstCellFrom(double x){
+		return (int) Math.max(-1, Math.min(width, Math.ceil((x - minX) / cellSize)));
+	}
+	
+	// the last cell whose right edge is at or left of x
+	int lastCellTo(double x){
+		return (int) Math.max(-1, Math.min(width, Math.floor((x - minX) / cellSize) - 1));
+	}
+	
+	/**
+	 * Pick one of the homes lying between minDist and maxDist (inclusive) of the given point,
+	 * uniformly at random.
+	 *
+	 * The homes of every cell touching the band (less those cells lying entirely within its hole)
+	 * form a few runs per row, so one of them can be drawn uniformly in time proportional to the 
+	 * number of rows; most such draws fall within the band. Should the band be thin or empty enough
+	 * that a number of draws in a row miss it, every candidate is tested and the draw made from those
+	 * within the band. Either way, each home within the band is equally likely to be chosen.
+	 *
+	 * @return the position of the chosen home in the index (see getOwner(), getX() and getY()), or
+	 * -1 if there are no homes within the band. Positions hold until the index is next compacted
+	 */
+	public int sample(Coordinate c, double minDist, double maxDist, SplitMix random){
+		return sample(c, minDist, maxDist, random, sampler);
+	}
+	
+	/**
+	 * As sample(c, minDist, maxDist, random), using the given scratch space
+	 */
+	public int sample(Coordinate c, double minDist, double maxDist, SplitMix random, Sampler s){
+		
+		int total = cover(c, minDist, maxDist, s);
+		if(total == 0)
+			return -1;
+		
+		double minSq = minDist > 0 ? minDist * minDist : 0, maxSq = maxDist * maxDist;
+		for(int tries = 0; tries < maxCoverDraws; tries++){
+			int k = pick(random.nextInt(total), s);
+			double dx = xs[k] - c.x, dy = ys[k] - c.y;
+			double distSq = dx * dx + dy * dy;
+			if(alive[k] && distSq >= minSq && distSq <= maxSq)
+				return k;
+		}
+		
+		// test every candidate instead
+		total = collect(c, minDist, maxDist, s);
+		if(total == 0)
+			return -1;
+		
+		for(int tries = 0; tries < 100; tries++){
+			int r = random.nextInt(total), k;
+			if(r < s.partial.numObjs)
+				k = s.partial.objs[r];
+			else
+				k = pick(r - s.partial.numObjs, s);
+			if(alive[k])
+				return k;
+		}
+		return -1;
+	}
+	
+	/** @return the id of the agent living in the home at the given position in the index */
+	public int getOwner(int k){ return owners[k]; }
+	
+	/** @return the x coordinate of the home at the given position in the index */
+	public double getX(int k){ return xs[k]; }
+	
+	/** @return the y coordinate of the home at the given position in the index */
+	public double getY(int k){ return ys[k]; }
+	
+	/**
+	 * @return the index of the r-th home within the runs
+	 */
+	int pick(int r, Sampler s){
+		
+		// binary search for the run holding the r-th home
+		int lo = 0, hi = s.runTotals.numObjs - 1;
+		while(lo < hi){
+			int mid = (lo + hi) / 2;
+			if(s.runTotals.objs[mid] <= r)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		int before = lo == 0 ? 0 : s.runTotals.objs[lo - 1];
+		return s.runs.objs[2 * lo] + r - before;
+	}
+	
+	/**
+	 * Gather the homes of every cell which touches the band, less those cells lying entirely within its
+	 * hole, into runs
+	 * @return the number of homes found
+	 */
+	int cover(Coordinate c, double minDist, double maxDist, Sampler s){
+		
+		s.runs.clear();
+		s.runTotals.clear();
+		if(owners == null || owners.length == numDead || maxDist < 0 || maxDist < minDist)
+			return 0;
+		double minSq = minDist * minDist, maxSq = maxDist * maxDist;
+		
+		int total = 0;
+		int j0 = cellY(c.y - maxDist), j1 = cellY(c.y + maxDist);
+		for(int j = j0; j <= j1; j++){
+			
+			double y0 = minY + j * cellSize, y1 = y0 + cellSize;
+			double dyNear = c.y < y0 ? y0 - c.y : (c.y > y1 ? c.y - y1 : 0);
+			double dyFar = Math.max(Math.abs(y0 - c.y), Math.abs(y1 - c.y));
+			if(dyNear > maxDist) continue;
+			
+			int rowStart = j * width;
+			double reach = Math.sqrt(maxSq - dyNear * dyNear);
+			int i0 = cellX(c.x - reach), i1 = cellX(c.x + reach);
+			
+			int skipStart = i1 + 1, skipEnd = i1;
+			if(minDist > 0 && dyFar < minDist - epsilon){
+				double skip = Math.sqrt(minSq - dyFar * dyFar) - epsilon;
+				skipStart = Math.max(i0, firstCellFrom(c.x - skip));
+				skipEnd = Math.min(i1, lastCellTo(c.x + skip));
+				if(skipStart > skipEnd){
+					skipStart = i1 + 1;
+					skipEnd = i1;
+				}
+			}
+			
+			total = addRun(s, total, cellStart[rowStart + i0], cellStart[rowStart + skipStart]);
+			total = addRun(s, total, cellStart[rowStart + skipEnd + 1], cellStart[rowStart + i1 + 1]);
+		}
+		return total;
+	}
+	
+	int addRun(Sampler s, int total, int start, int end){
+		if(end <= start)
+			return total;
+		s.runs.add(start);
+		s.runs.add(end);
+		total += end - start;
+		s.runTotals.add(total);
+		return total;
+	}
+	
+	/**
+	 * Gather the homes within the band into runs of whole cells and individually tested homes
+	 * @return the number of homes found
+	 */
+	int collect(Coordinate c, double minDist, double maxDist, Sampler s){
+		
+		s.partial.clear();
+		s.runs.clear();
+		s.runTotals.clear();
+		if(owners == null || owners.length == numDead || maxDist < 0 || maxDist < minDist)
+			return 0;
+		minDist = Math.max(0, minDist);
+		double minSq = minDist * minDist, maxSq = maxDist * maxDist;
+		
+		int total = 0;
+		
+		int j0 = cellY(c.y - maxDist), j1 = cellY(c.y + maxDist);
+		for(int j = j0; j <= j1; j++){
+			
+			double y0 = minY + j * cellSize, y1 = y0 + cellSize;
+			double dyNear = c.y < y0 ? y0 - c.y : (c.y > y1 ? c.y - y1 : 0);
+			double dyFar = Math.max(Math.abs(y0 - c.y), Math.abs(y1 - c.y));
+			if(dyNear > maxDist) continue;
+			
+			int rowStart = j * width;
+			
+			// the cells of the row which touch the outer disk
+			double reach = Math.sqrt(maxSq - dyNear * dyNear);
+			int i0 = cellX(c.x - reach), i1 = cellX(c.x + reach);
+			
+			// the cells lying entirely within the outer disk...
+			int fullStart = Integer.MAX_VALUE, fullEnd = Integer.MIN_VALUE;
+			if(dyFar < maxDist){
+				double full = Math.sqrt(maxSq - dyFar * dyFar) - epsilon;
+				fullStart = Math.max(i0, firstCellFrom(c.x - full));
+				fullEnd = Math.min(i1, lastCellTo(c.x + full));
+			}
+			
+			// ...and entirely outside the hole: those left of holeLeft or right of holeRight
+			int holeLeft = Integer.MAX_VALUE, holeRight = Integer.MIN_VALUE;
+			if(minDist > 0 && dyNear < minDist + epsilon){
+				double hole = Math.sqrt(Math.max(0, minSq - dyNear * dyNear)) + epsilon;
+				holeLeft = lastCellTo(c.x - hole);
+				holeRight = firstCellFrom(c.x + hole);
+			}
+			
+			// the cells lying entirely within the hole, which can be skipped
+			int skipStart = Integer.MAX_VALUE, skipEnd = Integer.MIN_VALUE;
+			if(minDist > 0 && dyFar < minDist - epsilon){
+				double skip = Math.sqrt(minSq - dyFar * dyFar) - epsilon;
+				skipStart = Math.max(i0, firstCellFrom(c.x - skip));
+				skipEnd = Math.min(i1, lastCellTo(c.x + skip));
+			}
+			
+			// assemble the excluded runs of the row in order: left full run, skipped run, right full run
+			int numExcluded = 0;
+			if(holeLeft == Integer.MAX_VALUE) // no hole in this row
+				numExcluded = exclude(s, numExcluded, fullStart, fullEnd, true);
+			else {
+				numExcluded = exclude(s, numExcluded, fullStart, Math.min(fullEnd, holeLeft), true);
+				numExcluded = exclude(s, numExcluded, skipStart, skipEnd, false);
+				numExcluded = exclude(s, numExcluded, Math.max(fullStart, holeRight), fullEnd, true);
+			}
+			
+			// count the full runs in one go, and test the homes of the cells in between individually
+			int i = i0;
+			for(int r = 0; r <= numExcluded; r += 2){
+				int gapEnd = r < numExcluded ? s.excluded[r] - 1 : i1;
+				for(; i <= gapEnd; i++){
+					int cell = rowStart + i;
+					for(int k = cellStart[cell]; k < cellStart[cell + 1]; k++){
+						double dx = xs[k] - c.x, dy = ys[k] - c.y;
+						double distSq = dx * dx + dy * dy;
+						if(distSq >= minSq && distSq <= maxSq)
+							s.partial.add(k);
+					}
+				}
+				if(r < numExcluded){
+					int start = cellStart[rowStart + s.excluded[r]], end = cellStart[rowStart + s.excluded[r + 1] + 1];
+					if(s.excludedIsFull[r / 2])
+						total = addRun(s, total, start, end);
+					i = s.excluded[r + 1] + 1;
+				}
+			}
+		}
+		
+		return total + s.partial.numObjs;
+	}
+	
+	// record a run of cells which needn't have their homes tested individually
+	int exclude(Sampler s, int numExcluded, int first, int last, boolean full){
+		if(first > last)
+			return numExcluded;
+		s.excluded[numExcluded] = first;
+		s.excluded[numExcluded + 1] = last;
+		s.excludedIsFull[numExcluded / 2] = full;
+		return numExcluded + 2;
+	}
+	
+	/** @return the number of homes available for sampling */
+	public int size(){ return owners == null ? 0 : owners.length - numDead; }
+}
@@ -0,0 +1,154 @@
+package modernPump.objects;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import sim.field.geo.GeomGridField;
+import sim.field.grid.IntGrid2D;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Counts the cases of a disease in each cell of a raster over the world, per window of time. A
+ * case is recorded in constant time by incrementing its cell, however many cases there have been:
+ * nothing is kept per case.
+ *
+ * The counts of the window in progress are kept in full; when a window closes, its nonzero cells
+ * are kept as (cell, count) pairs so that the whole history can be written out later. A running
+ * total of the cases in each cell is kept in an IntGrid2D, wrapped in a GeomGridField over the
+ * same area so that it can be drawn as a heatmap over the map layers. The cells are stretched a
+ * little if need be, so that they exactly tile the area and line up with the other layers.
+ *
+ * @author swise
+ *
+ */
+public class IncidenceGrid implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	double minX, maxY, cellWidth, cellHeight;
+	int width, height;
+	int windowLength; // the number of ticks covered by each window
+	
+	int [] current; // the counts of the window in progress, by cell
+	int currentWindow = 0;
+	int numInWindow = 0;
+	
+	ArrayList <int []> closedWindows = new ArrayList <int []> (); // (cell, count) pairs of each closed window
+	
+	IntGrid2D totals; // the total cases in each cell, with row 0 at the top of the area
+	GeomGridField layer;
+	
+	/**
+	 * @param area - the area to be covered: cases outside of it are counted in the nearest edge cell
+	 * @param cellSize - the (approximate) width and height of each cell
+	 * @param windowLength - the number of ticks covered by each window
+	 */
+	public IncidenceGrid(Envelope area, double cellSize, int windowLength){
+		this.windowLength = Math.max(1, windowLength);
+		minX = area.getMinX();
+		maxY = area.getMaxY();
+		width = Math.max(1, (int) Math.ceil(area.getWidth() / cellSize));
+		height = Math.max(1, (int) Math.ceil(area.getHeight() / cellSize));
+		cellWidth = area.getWidth() > 0 ? area.getWidth() / width : cellSize;
+		cellHeight = area.getHeight() > 0 ? area.getHeight() / height : cellSize;
+		
+		current = new int [width * height];
+		totals = new IntGrid2D(width, height);
+		layer = new GeomGridField(totals);
+		layer.setMBR(new Envelope(minX, minX + width * cellWidth, maxY - height * cellHeight, maxY));
+	}
+	
+	/**
+	 * Record a case at the given position and tick. Ticks must not go backwards.
+	 */
+	public void record(double x, double y, long tick){
+		advanceTo(tick);
+		int col = clamp((int) Math.floor((x - minX) / cellWidth), width);
+		int row = clamp((int) Math.floor((maxY - y) / cellHeight), height);
+		current[row * width + col]++;
+		totals.field[col][row]++;
+		numInWindow++;
+	}
+	
+	static int clamp(int i, int n){
+		return i < 0 ? 0 : i >= n ? n - 1 : i;
+	}
+	
+	/**
+	 * Close every window which ends at or before the given tick
+	 */
+	public void advanceTo(long tick){
+		int window = (int) (tick / windowLength);
+		while(currentWindow < window){
+			closedWindows.add(nonzeroCells());
+			if(numInWindow > 0){
+				Arrays.fill(current, 0);
+				numInWindow = 0;
+			}
+			currentWindow++;
+		}
+	}
+	
+	// the (cell, count) pairs of the window in progress
+	int [] nonzeroCells(){
+		if(numInWindow == 0)
+			return new int [0];
+		int n = 0;
+		for(int c: current)
+			if(c > 0) n++;
+		int [] pairs = new int [2 * n];
+		n = 0;
+		for(int i = 0; i < current.length; i++)
+			if(current[i] > 0){
+				pairs[n++] = i;
+				pairs[n++] = current[i];
+			}
+		return pairs;
+	}
+	
+	/**
+	 * Write the nonzero cells of every window so far, the one in progress included, one per line:
+	 *
+	 * 		[prefix]	window	startTick	col	row	x	y	cases
+	 *
+	 * where x and y give the centre of the cell, and the prefix (if any) is written at the start of
+	 * each line
+	 */
+	public void write(Writer w, String prefix) throws IOException {
+		for(int window = 0; window <= currentWindow; window++){
+			int [] pairs = window < closedWindows.size() ? closedWindows.get(window) : nonzeroCells();
+			for(int i = 0; i < pairs.length; i += 2){
+				int col = pairs[i] % width, row = pairs[i] / width;
+				w.write((prefix == null ? "" : prefix + "\t") + window + "\t" + (long) window * windowLength
+						+ "\t" + col + "\t" + row + "\t" + (minX + (col + .5) * cellWidth) + "\t" + (maxY - (row + .5) * cellHeight)
+						+ "\t" + pairs[i + 1] + "\n");
+			}
+		}
+	}
+	
+	/** @return the header line matching the lines written by write() */
+	public static String header(String prefix){
+		return (prefix == null ? "" : prefix + "\t") + "window\tstartTick\tcol\trow\tx\ty\tcases\n";
+	}
+	
+	/** @return the number of cases in the window in progress */
+	public int getCasesInWindow(){ return numInWindow; }
+	
+	/** @return the number of cases so far in the given cell of the current window */
+	public int getCasesInWindow(int col, int row){ return current[row * width + col]; }
+	
+	/** @return the total number of cases so far in the given cell */
+	public int getTotal(int col, int row){ return totals.field[col][row]; }
+	
+	/** @return the running totals, as a layer to be drawn over the map */
+	public GeomGridField getLayer(){ return layer; }
+	
+	public int getWidth(){ return width; }
+	public int getHeight(){ return height; }
+	public int getCurrentWindow(){ return currentWindow; }
+	public int getWindowLength(){ return windowLength; }
+}
@@ -0,0 +1,241 @@
+package modernPump.objects;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Answers "is this on land?" questions about a (large, complex) area polygon. A raster mask over
+ * the area records which cells lie entirely within the interior of the area and which straddle
+ * its boundary: a query in an interior cell or outside of both is answered from the mask alone,
+ * and only queries in boundary cells fall through to the exact (indexed) geometric test.
+ *
+ * @author swise
+ *
+ */
+public class LandMask implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	Geometry area;
+	transient PreparedGeometry prepared;
+	transient IndexedPointInAreaLocator locator;
+	
+	double minX, minY, cellSize;
+	int width, height;
+	
+	BitSet interior, boundary; // cells in neither set are entirely outside the area
+	
+	GeometryFactory fa = new GeometryFactory();
+	
+	/**
+	 * @param area - the area to be tested against
+	 * @param cellSize - the resolution of the raster mask
+	 */
+	public LandMask(Geometry area, double cellSize){
+		this.area = area;
+		this.cellSize = cellSize;
+		
+		Envelope e = area.getEnvelopeInternal();
+		minX = e.getMinX();
+		minY = e.getMinY();
+		width = Math.max(1, (int) Math.ceil(e.getWidth() / cellSize));
+		height = Math.max(1, (int) Math.ceil(e.getHeight() / cellSize));
+		
+		interior = new BitSet(width * height);
+		boundary = new BitSet(width * height);
+		
+		setupExactTests();
+		classify(0, 0, width, height);
+	}
+	
+	// restores a mask which has already been classified
+	LandMask(Geometry area, double minX, double minY, double cellSize, int width, int height, BitSet interior, BitSet boundary){
+		this.area = area;
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		this.width = width;
+		this.height = height;
+		this.interior = interior;
+		this.boundary = boundary;
+		setupExactTests();
+	}
+	
+	void setupExactTests(){
+		prepared = PreparedGeometryFactory.prepare(area);
+		locator = new IndexedPointInAreaLocator(area);
+	}
+	
+	/**
+	 * Recursively classify the block of cells [i0, i1) x [j0, j1), splitting it into quarters
+	 * until each part either lies entirely inside the area, entirely outside it, or is a single cell
+	 */
+	void classify(int i0, int j0, int i1, int j1){
+		Geometry block = fa.toGeometry(new Envelope(minX + i0 * cellSize, minX + i1 * cellSize,
+				minY + j0 * cellSize, minY + j1 * cellSize));
+		
+		if(!prepared.intersects(block))
+			return; // entirely outside: nothing to record
+		else if(prepared.containsProperly(block)){
+			for(int j = j0; j < j1; j++)
+				interior.set(j * width + i0, j * width + i1);
+			return;
+		}
+		else if(i1 - i0 == 1 && j1 - j0 == 1){
+			boundary.set(j0 * width + i0);
+			return;
+		}
+		
+		int iMid = (i0 + i1 + 1) / 2, jMid = (j0 + j1 + 1) / 2;
+		classify(i0, j0, iMid, jMid);
+		if(iMid < i1) classify(iMid, j0, i1, jMid);
+		if(jMid < j1) classify(i0, jMid, iMid, j1);
+		if(iMid < i1 && jMid < j1) classify(iMid, jMid, i1, j1);
+	}
+	
+	/** @return the index of the cell containing the position, or -1 if it is outside of the mask */
+	int cellOf(double x, double y){
+		int i = (int) Math.floor((x - minX) / cellSize), j = (int) Math.floor((y - minY) / cellSize);
+		if(i < 0 || j < 0 || i >= width || j >= height)
+			return -1;
+		return j * width + i;
+	}
+	
+	/**
+	 * @return whether the position lies within the area, in the sense of Geometry.contains()
+	 */
+	public boolean contains(Coordinate c){
+		int cell = cellOf(c.x, c.y);
+		if(cell < 0) return false;
+		else if(interior.get(cell)) return true;
+		else if(!boundary.get(cell)) return false;
+		return locator.locate(c) == Location.INTERIOR;
+	}
+	
+	/**
+	 * @return whether the geometry lies within the area. Points are tested against the mask, anything
+	 * else against the prepared area
+	 */
+	public boolean contains(Geometry g){
+		if(g.getNumPoints() == 1)
+			return contains(g.getCoordinate());
+		return prepared.contains(g);
+	}
+	
+	/**
+	 * @return whether the line crosses the boundary of the area, in the sense of Geometry.crosses().
+	 * If every cell the line passes through lies on the same side of the boundary, the answer is no;
+	 * if it passes through both interior and exterior cells, the answer is yes. Only lines which
+	 * otherwise pass through boundary cells need the exact test
+	 */
+	public boolean crosses(LineString ls){
+		int seen = 0; // bit 1: interior cells; bit 2: exterior cells; bit 4: boundary cells
+		for(int i = 1; i < ls.getNumPoints() && (seen & 3) != 3; i++)
+			seen |= traverse(ls.getCoordinateN(i - 1), ls.getCoordinateN(i));
+		
+		if((seen & 3) == 3)
+			return true;
+		else if(seen == 1 || seen == 2)
+			return false;
+		return prepared.crosses(ls);
+	}
+	
+	int describe(int i, int j){
+		if(i < 0 || j < 0 || i >= width || j >= height) return 2;
+		int cell = j * width + i;
+		if(interior.get(cell)) return 1;
+		else if(boundary.get(cell)) return 4;
+		return 2;
+	}
+	
+	/**
+	 * Walk the cells the segment passes through (Amanatides and Woo), recording what sort of cells
+	 * they are. Gives up as soon as the segment is known to touch both interior and exterior cells
+	 */
+	int traverse(Coordinate a, Coordinate b){
+		double x = (a.x - minX) / cellSize, y = (a.y - minY) / cellSize;
+		double dx = (b.x - minX) / cellSize - x, dy = (b.y - minY) / cellSize - y;
+		int i = (int) Math.floor(x), j = (int) Math.floor(y);
+		int iEnd = (int) Math.floor(x + dx), jEnd = (int) Math.floor(y + dy);
+		int stepI = dx > 0 ? 1 : -1, stepJ = dy > 0 ? 1 : -1;
+		
+		// the distance along the segment (in units of its length) to the next cell border, and between borders
+		double tMaxX = dx == 0 ? Double.MAX_VALUE : ((dx > 0 ? i + 1 - x : x - i) / Math.abs(dx));
+		double tMaxY = dy == 0 ? Double.MAX_VALUE : ((dy > 0 ? j + 1 - y : y - j) / Math.abs(dy));
+		double tDeltaX = dx == 0 ? Double.MAX_VALUE : 1 / Math.abs(dx);
+		double tDeltaY = dy == 0 ? Double.MAX_VALUE : 1 / Math.abs(dy);
+		
+		int seen = describe(i, j);
+		int maxSteps = Math.abs(iEnd - i) + Math.abs(jEnd - j);
+		for(int k = 0; k < maxSteps && (seen & 3) != 3; k++){
+			if(tMaxX < tMaxY){
+				i += stepI;
+				tMaxX += tDeltaX;
+			}
+			else {
+				j += stepJ;
+				tMaxY += tDeltaY;
+			}
+			seen |= describe(i, j);
+		}
+		return seen;
+	}
+	
+	/**
+	 * Write out the mask (but not the area itself)
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeDouble(minX);
+		out.writeDouble(minY);
+		out.writeDouble(cellSize);
+		out.writeInt(width);
+		out.writeInt(height);
+		writeBits(out, interior);
+		writeBits(out, boundary);
+	}
+	
+	static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+		long [] words = bits.toLongArray();
+		out.writeInt(words.length);
+		for(long word: words)
+			out.writeLong(word);
+	}
+	
+	static BitSet readBits(ByteBuffer in){
+		long [] words = new long [in.getInt()];
+		in.asLongBuffer().get(words);
+		in.position(in.position() + 8 * words.length);
+		return BitSet.valueOf(words);
+	}
+	
+	/**
+	 * Read back a mask written by write(), for the given area
+	 */
+	public static LandMask read(ByteBuffer in, Geometry area){
+		double minX = in.getDouble(), minY = in.getDouble(), cellSize = in.getDouble();
+		int width = in.getInt(), height = in.getInt();
+		BitSet interior = readBits(in), boundary = readBits(in);
+		return new LandMask(area, minX, minY, cellSize, width, height, interior, boundary);
+	}
+	
+	/** @return the area being tested against */
+	public Geometry getArea(){ return area; }
+	
+	private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setupExactTests();
+	}
+}
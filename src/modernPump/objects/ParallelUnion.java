@@ -0,0 +1,55 @@
+package modernPump.objects;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Unions a list of geometries as a tree: the list is split in half recursively across the
+ * fork-join pool, small runs of geometries are merged with JTS's cascaded union, and the
+ * partial results are merged pairwise on the way back up. Unlike unioning each geometry into
+ * a running total, no step ever has to merge a small piece into the (large) final result.
+ *
+ * @author swise
+ *
+ */
+public class ParallelUnion extends RecursiveTask <Geometry> {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static int leafSize = 4; // the number of geometries merged directly, without further splitting
+	
+	List <Geometry> geometries;
+	int from, to;
+	
+	ParallelUnion(List <Geometry> geometries, int from, int to){
+		this.geometries = geometries;
+		this.from = from;
+		this.to = to;
+	}
+	
+	@Override
+	protected Geometry compute() {
+		if(to - from <= leafSize)
+			return UnaryUnionOp.union(geometries.subList(from, to));
+		
+		int mid = (from + to) / 2;
+		ParallelUnion left = new ParallelUnion(geometries, from, mid);
+		left.fork();
+		Geometry right = new ParallelUnion(geometries, mid, to).compute();
+		return left.join().union(right);
+	}
+	
+	/**
+	 * @param geometries - the geometries to be merged
+	 * @return the union of all of the geometries, or null if there are none
+	 */
+	public static Geometry union(List <Geometry> geometries){
+		if(geometries.size() == 0)
+			return null;
+		return ForkJoinPool.commonPool().invoke(new ParallelUnion(geometries, 0, geometries.size()));
+	}
+}
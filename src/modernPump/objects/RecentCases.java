@@ -0,0 +1,67 @@
+package modernPump.objects;
+
+import java.io.Serializable;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.MasonGeometry;
+import sim.util.geo.PointMoveTo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Shows the most recent cases as points in a layer, never holding more than a fixed number of
+ * them: once the layer is full, the point of the oldest case is moved to the newest one rather
+ * than a new point being added, so the layer's size (and the time taken to draw it) is bounded
+ * however long the outbreak goes on.
+ *
+ * @author swise
+ *
+ */
+public class RecentCases implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	GeomVectorField layer;
+	MasonGeometry [] points;
+	int numPoints = 0, oldest = 0;
+	
+	GeometryFactory fa = new GeometryFactory();
+	
+	/**
+	 * @param layer - the layer in which the cases are drawn
+	 * @param capacity - the most cases shown at once
+	 */
+	public RecentCases(GeomVectorField layer, int capacity){
+		this.layer = layer;
+		points = new MasonGeometry [Math.max(0, capacity)];
+	}
+	
+	/**
+	 * Show a case at the given position, in place of the oldest case if the layer is full
+	 */
+	public void add(double x, double y, long tick){
+		if(points.length == 0)
+			return;
+		
+		MasonGeometry mg;
+		if(numPoints < points.length){
+			mg = new MasonGeometry(fa.createPoint(new Coordinate(x, y)));
+			mg.isMovable = true;
+			points[numPoints++] = mg;
+			layer.addGeometry(mg);
+		}
+		else {
+			mg = points[oldest];
+			oldest = (oldest + 1) % points.length;
+			PointMoveTo p = new PointMoveTo();
+			p.setCoordinate(new Coordinate(x, y));
+			mg.geometry.apply(p);
+			mg.geometry.geometryChanged();
+		}
+		mg.addIntegerAttribute("tick", (int) tick);
+	}
+	
+	/** @return the number of cases currently shown */
+	public int size(){ return numPoints; }
+}
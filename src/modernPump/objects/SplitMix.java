@@ -0,0 +1,93 @@
+package modernPump.objects;
+
+import java.io.Serializable;
+
+/**
+ * A splittable random number generator: SplitMix64 (Steele, Lea and Flood, "Fast Splittable
+ * Pseudorandom Number Generators", 2014). Its whole state is a single long, so a stream can be
+ * kept for every agent in a primitive array and picked up by whichever thread steps the agent.
+ *
+ * New streams are split off from a seed by hashing it together with a key, so each agent, disease
+ * or whatever else needs random numbers gets a stream which depends only on the master seed and
+ * its key, and not on who else has drawn what, or in which order, or on which thread. The same
+ * hash gives one-off draws determined entirely by a handful of keys, such as whether a given host
+ * infects a given contact on a given tick.
+ *
+ * @author swise
+ *
+ */
+public class SplitMix implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	static final long GAMMA = 0x9e3779b97f4a7c15L; // the golden ratio, by which the state advances
+	
+	long state;
+	
+	public SplitMix(long seed){
+		state = seed;
+	}
+	
+	/** @return the state of the stream, from which it can be picked up again with setState() */
+	public long getState(){ return state; }
+	
+	/** Pick up the stream with the given state */
+	public void setState(long state){ this.state = state; }
+	
+	/** The finalizer of SplitMix64: a bijection which scatters the bits of its argument over the result */
+	public static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	/** @return the seed of the stream split off from the given seed with the given key */
+	public static long split(long seed, long key){
+		return mix(seed ^ mix(key + GAMMA));
+	}
+	
+	/** @return a double in [0, 1) determined entirely by the given seed and keys */
+	public static double hash(long seed, long a, long b, long c){
+		return toDouble(split(split(split(seed, a), b), c));
+	}
+	
+	static double toDouble(long bits){
+		return (bits >>> 11) * 0x1.0p-53;
+	}
+	
+	public long nextLong(){
+		return mix(state += GAMMA);
+	}
+	
+	/** @return a double in [0, 1) */
+	public double nextDouble(){
+		return toDouble(nextLong());
+	}
+	
+	/** @return an int in [0, n), without bias */
+	public int nextInt(int n){
+		if(n <= 0)
+			throw new IllegalArgumentException("n must be positive, not " + n);
+		int bits, val;
+		do {
+			bits = (int) (nextLong() >>> 33);
+			val = bits % n;
+		} while(bits - val + (n - 1) < 0);
+		return val;
+	}
+	
+	/**
+	 * @return a normally distributed double with mean 0 and standard deviation 1, by the polar
+	 * method. The second value the method makes is thrown away rather than kept for the next call,
+	 * so that the stream's state stays a single long
+	 */
+	public double nextGaussian(){
+		double v1, v2, s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while(s >= 1 || s == 0);
+		return v1 * Math.sqrt(-2 * Math.log(s) / s);
+	}
+}
@@ -0,0 +1,167 @@
+package modernPump.sim;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Bag;
+import sim.util.IntBag;
+
+/**
+ * A calendar queue for agents which wake up on whole-hour ticks. Each of the coming ticks has its
+ * own bucket in a ring, so scheduling an agent is a constant-time append rather than an insertion
+ * into MASON's heap, however many agents there are. The calendar itself is stepped once per tick:
+ * it shuffles that tick's bucket and steps everyone in it, so agents still wake in a random order
+ * within each tick, as they did when each drew a random ordering of its own.
+ *
+ * Wakeups further ahead than the ring reaches are held separately and moved into the ring as it
+ * comes round to them.
+ *
+ * Given a StripPartition, the calendar steps each tick's agents strip by strip instead. The
+ * strips hold on to their agents' changes until every agent has been stepped, so the order in
+ * which the agents wake makes no difference, and the bucket is not shuffled.
+ *
+ * @author swise
+ *
+ */
+public class AgentCalendar implements Steppable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	Bag [] buckets;
+	int mask;
+	long now = 0; // the tick of the next (or current) bucket to be stepped
+	
+	TreeMap <Long, Bag> farFuture = new TreeMap <Long, Bag> ();
+	int size = 0;
+	
+	TickMetrics metrics = null; // if set, the time taken is recorded here (the agents count their own steps, see Strip.countStep())
+	StripPartition strips = null; // if set, the agents are stepped in parallel, each in the strip it is in
+	
+	/**
+	 * @param horizon - the number of ticks ahead covered by the ring, rounded up to a power of two
+	 */
+	public AgentCalendar(int horizon){
+		int n = Integer.highestOneBit(Math.max(2, horizon - 1)) << 1;
+		buckets = new Bag [n];
+		for(int i = 0; i < n; i++)
+			buckets[i] = new Bag();
+		mask = n - 1;
+	}
+	
+	/**
+	 * Wake the agent at the current tick (or the first, if the simulation has not yet started)
+	 */
+	public void scheduleOnce(Steppable agent){
+		scheduleOnce(now, agent);
+	}
+	
+	/**
+	 * Wake the agent at the given time. Fractional times are rounded up to the next tick, and times
+	 * already past are brought forward to the current tick
+	 */
+	public void scheduleOnce(double time, Steppable agent){
+		long tick = Math.max(now, (long) Math.ceil(time));
+		
+		if(tick - now <= mask)
+			buckets[(int) (tick & mask)].add(agent);
+		else {
+			Bag b = farFuture.get(tick);
+			if(b == null){
+				b = new Bag();
+				farFuture.put(tick, b);
+			}
+			b.add(agent);
+		}
+		size++;
+	}
+	
+	@Override
+	public void step(SimState state) {
+		
+		long time = (long) state.schedule.getTime();
+		for(; now <= time; now++){
+			
+			if(metrics != null) metrics.beginPhase(TickMetrics.phase_SCHEDULING);
+			Bag bucket = buckets[(int) (now & mask)];
+			if(strips == null)
+				bucket.shuffle(state.random);
+			if(metrics != null){
+				metrics.endPhase(TickMetrics.phase_SCHEDULING);
+				metrics.beginPhase(TickMetrics.phase_MOVEMENT);
+			}
+			
+			// agents woken for this tick while it is being stepped are stepped at the end of it
+			if(strips == null){
+				for(int i = 0; i < bucket.numObjs; i++){
+					size--;
+					((Steppable) bucket.objs[i]).step(state);
+				}
+			}
+			else {
+				for(int from = 0; from < bucket.numObjs; ){
+					int to = bucket.numObjs;
+					size -= to - from;
+					strips.step(state, bucket, from, to);
+					from = to;
+				}
+			}
+			
+			if(metrics != null){
+				metrics.endPhase(TickMetrics.phase_MOVEMENT);
+				metrics.beginPhase(TickMetrics.phase_SCHEDULING);
+			}
+			bucket.clear();
+			
+			// the slot which has just been freed now stands for the furthest tick the ring reaches
+			Map.Entry <Long, Bag> next = farFuture.firstEntry();
+			if(next != null && next.getKey() == now + mask + 1){
+				bucket.addAll(next.getValue());
+				farFuture.remove(next.getKey());
+			}
+			if(metrics != null) metrics.endPhase(TickMetrics.phase_SCHEDULING);
+		}
+	}
+	
+	/**
+	 * Take every wakeup of the given agents off the calendar, in one pass over it
+	 *
+	 * @return the ticks on which each of the agents was to wake, in the order the agents are given
+	 */
+	public IntBag [] extract(Bag agents){
+		IdentityHashMap <Object, IntBag> ticks = new IdentityHashMap <Object, IntBag> ();
+		IntBag [] result = new IntBag [agents.numObjs];
+		for(int i = 0; i < agents.numObjs; i++){
+			result[i] = new IntBag();
+			ticks.put(agents.objs[i], result[i]);
+		}
+		
+		for(long tick = now; tick <= now + mask; tick++)
+			extract(buckets[(int) (tick & mask)], tick, ticks);
+		for(Map.Entry <Long, Bag> e: farFuture.entrySet())
+			extract(e.getValue(), e.getKey(), ticks);
+		return result;
+	}
+	
+	// take the wakeups of the agents out of the bucket, keeping the rest in order
+	void extract(Bag bucket, long tick, IdentityHashMap <Object, IntBag> ticks){
+		int kept = 0;
+		for(int i = 0; i < bucket.numObjs; i++){
+			IntBag t = ticks.get(bucket.objs[i]);
+			if(t == null)
+				bucket.objs[kept++] = bucket.objs[i];
+			else {
+				t.add((int) tick);
+				size--;
+			}
+		}
+		for(int i = kept; i < bucket.numObjs; i++)
+			bucket.objs[i] = null;
+		bucket.numObjs = kept;
+	}
+	
+	/** @return the number of wakeups waiting to happen */
+	public int size(){ return size; }
+}
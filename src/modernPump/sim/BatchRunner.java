@@ -0,0 +1,252 @@
+package modernPump.sim;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import modernPump.agents.diseases.Disease;
+import modernPump.agents.diseases.EpidemicState;
+import modernPump.objects.IncidenceGrid;
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Runs many replicates of ModernPump without visualization, several at once, each in its own
+ * SimState with its own seed. Every replicate reports the S/I/R counts of every disease at the
+ * end of each tick, and these are streamed into a single epicurve file as they come in:
+ *
+ * 		replicate	seed	tick	disease	S	I	R
+ *
+ * Once every replicate has finished, the mean, minimum and maximum of the counts at each tick
+ * are written to a summary file alongside it. As each replicate finishes, the number of cases in
+ * each cell of its incidence grid in each window of time is added to an incidence file:
+ *
+ * 		replicate	window	startTick	col	row	x	y	cases
+ *
+ * If an event log file is given, each replicate writes its events to a log of its own, named for
+ * the file followed by the replicate's number; otherwise no events are logged.
+ *
+ * @author swise
+ *
+ */
+public class BatchRunner {
+	
+	int numReplicates, numTicks, numThreads;
+	long baseSeed;
+	String outputFile;
+	String snapshotFile = null; // if set, every replicate restores its world from this snapshot
+	String eventLogFile = null; // if set, each replicate writes its events to this followed by its number, and otherwise none are logged
+	
+	BufferedWriter epicurve, incidence;
+	
+	// the counts recorded by each replicate: [replicate][disease][tick][S, I, R]
+	int [][][][] counts;
+	ArrayList <String> diseaseNames = new ArrayList <String> ();
+	
+	public BatchRunner(int numReplicates, int numTicks, String outputFile, int numThreads, long baseSeed){
+		this.numReplicates = numReplicates;
+		this.numTicks = numTicks;
+		this.outputFile = outputFile;
+		this.numThreads = numThreads;
+		this.baseSeed = baseSeed;
+		counts = new int [numReplicates][][][];
+	}
+	
+	/**
+	 * Run all of the replicates, returning once they have all finished
+	 */
+	public void run() throws IOException, InterruptedException {
+		
+		// draw the seeds up front, so that the same base seed always gives the same set of replicates
+		MersenneTwisterFast seeder = new MersenneTwisterFast(baseSeed);
+		final long [] seeds = new long [numReplicates];
+		for(int i = 0; i < numReplicates; i++)
+			seeds[i] = seeder.nextLong();
+		
+		// build the snapshot once, before the replicates need it, if there is none or it is out of date
+		if(snapshotFile != null){
+			ModernPump world = new ModernPump(baseSeed);
+			if(!WorldSnapshot.isRestorable(world, snapshotFile)){
+				System.out.println("Building the world snapshot " + snapshotFile + "...");
+				world.snapshotFile = snapshotFile;
+				world.loggedEvents = 0;
+				world.start();
+				world.finish();
+			}
+		}
+		
+		epicurve = new BufferedWriter(new FileWriter(outputFile));
+		epicurve.write("replicate\tseed\ttick\tdisease\tS\tI\tR\n");
+		incidence = new BufferedWriter(new FileWriter(outputFile + ".incidence"));
+		incidence.write(IncidenceGrid.header("replicate"));
+		
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		for(int i = 0; i < numReplicates; i++){
+			final int replicate = i;
+			workers.execute(new Runnable(){
+				public void run(){
+					try {
+						runReplicate(replicate, seeds[replicate]);
+					} catch (Exception e) {
+						System.err.println("replicate " + replicate + " failed:");
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		
+		epicurve.close();
+		incidence.close();
+		writeSummary(outputFile + ".summary");
+	}
+	
+	/**
+	 * Set up and run a single replicate, recording its counts as it goes
+	 */
+	void runReplicate(final int replicate, final long seed) throws IOException {
+		
+		long startTime = System.currentTimeMillis();
+		
+		final ModernPump world = new ModernPump(seed);
+		world.snapshotFile = snapshotFile;
+		if(eventLogFile != null)
+			world.eventLogFile = eventLogFile + "." + replicate;
+		else
+			world.loggedEvents = 0; // the replicates would otherwise all print their events at once
+		world.start();
+		
+		final int numDiseases = world.diseases.size();
+		registerDiseases(world.diseases);
+		counts[replicate] = new int [numDiseases][numTicks][3];
+		
+		// record the counts at the end of every tick, once the agents have moved (ordering 200)
+		world.schedule.scheduleRepeating(Schedule.EPOCH, 200, new Steppable(){
+			private static final long serialVersionUID = 1L;
+			
+			public void step(SimState state){
+				int tick = (int) state.schedule.getTime();
+				if(tick >= numTicks) return;
+				
+				StringBuilder lines = new StringBuilder();
+				for(int d = 0; d < numDiseases; d++){
+					Disease disease = world.diseases.get(d);
+					EpidemicState s = disease.state;
+					int [] sir = counts[replicate][d][tick];
+					sir[0] = s.getNumSusceptible(world.humans.size() + world.numDied); // the dead had all been infected
+					sir[1] = s.getNumInfected();
+					sir[2] = s.getNumRecovered();
+					lines.append(replicate + "\t" + seed + "\t" + tick + "\t" + disease.getName() + "\t"
+							+ sir[0] + "\t" + sir[1] + "\t" + sir[2] + "\n");
+				}
+				write(lines.toString());
+			}
+		}, 1);
+		
+		for(int i = 0; i < numTicks; i++)
+			world.schedule.step(world);
+		world.finish();
+		writeIncidence(replicate, world.incidence);
+		
+		System.out.println("replicate " + replicate + " (seed " + seed + ") finished in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+	}
+	
+	synchronized void registerDiseases(ArrayList <Disease> diseases){
+		for(int d = diseaseNames.size(); d < diseases.size(); d++)
+			diseaseNames.add(diseases.get(d).getName());
+	}
+	
+	synchronized void write(String lines){
+		try {
+			epicurve.write(lines);
+			epicurve.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	synchronized void writeIncidence(int replicate, IncidenceGrid grid){
+		try {
+			grid.write(incidence, String.valueOf(replicate));
+			incidence.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Write the mean, minimum and maximum of the counts across the replicates at each tick
+	 */
+	void writeSummary(String filename) throws IOException {
+		
+		BufferedWriter w = new BufferedWriter(new FileWriter(filename));
+		w.write("tick\tdisease\treplicates\tmeanS\tmeanI\tmeanR\tminS\tminI\tminR\tmaxS\tmaxI\tmaxR\n");
+		
+		for(int d = 0; d < diseaseNames.size(); d++){
+			for(int tick = 0; tick < numTicks; tick++){
+				
+				int n = 0;
+				double [] sum = new double [3];
+				int [] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE}, max = new int [3];
+				for(int r = 0; r < numReplicates; r++){
+					if(counts[r] == null || d >= counts[r].length) continue; // the replicate failed
+					int [] sir = counts[r][d][tick];
+					for(int k = 0; k < 3; k++){
+						sum[k] += sir[k];
+						min[k] = Math.min(min[k], sir[k]);
+						max[k] = Math.max(max[k], sir[k]);
+					}
+					n++;
+				}
+				if(n == 0) continue;
+				
+				w.write(tick + "\t" + diseaseNames.get(d) + "\t" + n
+						+ "\t" + sum[0] / n + "\t" + sum[1] / n + "\t" + sum[2] / n
+						+ "\t" + min[0] + "\t" + min[1] + "\t" + min[2]
+						+ "\t" + max[0] + "\t" + max[1] + "\t" + max[2] + "\n");
+			}
+		}
+		w.close();
+	}
+	
+	/**
+	 * To run the model without visualization:
+	 *
+	 * 		BatchRunner numReplicates numTicks outputFile [numThreads] [baseSeed] [snapshotFile] [eventLogFile]
+	 *
+	 * If a snapshot file is given, it is built (if it does not yet exist) and every replicate starts from it.
+	 * A snapshot file of "-" stands for none
+	 */
+	public static void main(String [] args) throws Exception {
+		
+		if(args.length < 3){
+			System.out.println("usage: BatchRunner numReplicates numTicks outputFile [numThreads] [baseSeed] [snapshotFile] [eventLogFile]");
+			System.exit(0);
+		}
+		
+		int numReplicates = Integer.parseInt(args[0]);
+		int numTicks = Integer.parseInt(args[1]);
+		int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		long baseSeed = args.length > 4 ? Long.parseLong(args[4]) : System.currentTimeMillis();
+		
+		System.out.println("Running " + numReplicates + " replicates of " + numTicks + " ticks on " + numThreads + " threads...");
+		
+		BatchRunner runner = new BatchRunner(numReplicates, numTicks, args[2], Math.max(1, Math.min(numThreads, numReplicates)), baseSeed);
+		if(args.length > 5 && !args[5].equals("-"))
+			runner.snapshotFile = args[5];
+		if(args.length > 6)
+			runner.eventLogFile = args[6];
+		runner.run();
+		
+		System.out.println("...batch finished");
+		System.exit(0);
+	}
+}
@@ -0,0 +1,348 @@
+package modernPump.sim;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import modernPump.agents.Human;
+import modernPump.agents.HumanTeleporter;
+import modernPump.agents.Population;
+import modernPump.agents.diseases.Disease;
+import modernPump.agents.diseases.TransmissionEngine;
+import modernPump.objects.ContactGrid;
+import sim.field.network.Edge;
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+import swise.objects.network.GeoNode;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Measures the hot paths of the simulation, so that every change made for the sake of speed can be
+ * checked against the numbers from before it. Each benchmark is run against one or more worlds:
+ * the bundled Jacmel data, and/or made-up worlds (see SyntheticWorld) of any number of agents.
+ *
+ * The benchmarks are:
+ *
+ * 		contacts			finding the contacts of an infected agent, as the TransmissionEngine does
+ * 		pickPlaceToVisit	choosing whose home an agent visits
+ * 		clearPath			finding a path over land between two points
+ * 		getClosestEdge		finding the road nearest to a point
+ * 		getClosestGeoNode	finding the road junction nearest to a point
+ * 		setupAgents			creating the agents (timed per agent)
+ * 		step				one full tick of the schedule
+ *
+ * Each benchmark is warmed up for a few iterations before it is measured, and the mean, standard
+ * deviation and minimum time per operation over the measured iterations are reported, and added
+ * to a results file so that they can be tracked from one version to the next:
+ *
+ * 		date	world	agents	benchmark	iterations	meanNs	stdDevNs	minNs	java
+ *
+ * @author swise
+ *
+ */
+public class Benchmarks {
+	
+	public static int warmupIterations = 3;
+	public static int iterations = 5;
+	public static int operationsPerIteration = 10000; // for the benchmarks of single queries
+	public static int ticksPerIteration = 24; // for the step benchmark, each iteration of which starts a new world
+	
+	static final String [] allBenchmarks = {"contacts", "pickPlaceToVisit", "clearPath", "getClosestEdge",
+		"getClosestGeoNode", "setupAgents", "step"};
+	
+	String resultsFile;
+	String snapshotDirectory;
+	long seed = 1;
+	
+	long sink = 0; // every result is folded in here, so that none of the work can be optimized away
+	
+	public Benchmarks(String resultsFile, String snapshotDirectory){
+		this.resultsFile = resultsFile;
+		this.snapshotDirectory = snapshotDirectory;
+	}
+	
+	/**
+	 * A benchmark: something to be timed over and over, with whatever preparation it needs done
+	 * (untimed) before each iteration
+	 */
+	abstract class Benchmark {
+		
+		String name;
+		int operations; // the operations making up one iteration
+		ModernPump world; // the world the benchmark runs in
+		
+		Benchmark(String name, int operations, ModernPump world){
+			this.name = name;
+			this.operations = operations;
+			this.world = world;
+		}
+		
+		void setup() throws Exception {}
+		
+		void finish(){
+			if(world != null) world.finish();
+		}
+		
+		/** run all of the iteration's operations */
+		abstract void run() throws Exception;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// WORLDS ////////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return the snapshot of the named world, building it first if there is none or it is out of
+	 * date. A world is either "jacmel", for the bundled data, or the number of agents in a synthetic
+	 * world
+	 */
+	String snapshotFor(String world) throws IOException {
+		new File(snapshotDirectory).mkdirs();
+		String filename = new File(snapshotDirectory, world + ".snapshot").getPath();
+		String key = world.equals("jacmel") ? WorldSnapshot.key(new ModernPump(seed)) : SyntheticWorld.key(Integer.parseInt(world), seed);
+		if(WorldSnapshot.isCurrent(filename, key))
+			return filename;
+		
+		System.out.println("Building the " + world + " world...");
+		if(world.equals("jacmel")){
+			ModernPump pump = startWorld(filename, seed); // saves the snapshot, there being no current one
+			pump.finish();
+		}
+		else
+			SyntheticWorld.build(Integer.parseInt(world), seed, filename);
+		return filename;
+	}
+	
+	ModernPump startWorld(String snapshot, long seed){
+		ModernPump world = new ModernPump(seed);
+		world.snapshotFile = snapshot;
+		world.loggedEvents = 0;
+		world.start();
+		return world;
+	}
+	
+	// fill the network layers from the road network, as the agents that travel by road need them
+	static void indexRoadNetwork(ModernPump world){
+		for(Object o: world.roads.getAllNodes()){
+			GeoNode n = (GeoNode) o;
+			world.networkLayer.addGeometry(n);
+			for(Object e: world.roads.getEdgesOut(n)){
+				MasonGeometry mg = (MasonGeometry) ((Edge) e).info;
+				if(mg.getAttribute("ListEdge") != null) continue;
+				mg.addAttribute("ListEdge", e);
+				world.networkEdgeLayer.addGeometry(mg);
+			}
+		}
+		world.networkLayer.setMBR(world.MBR);
+		world.networkEdgeLayer.setMBR(world.MBR);
+	}
+	
+	// random points on land, near the agents' homes
+	Coordinate [] samplePoints(ModernPump world, int n, double spread, MersenneTwisterFast random){
+		Coordinate [] points = new Coordinate [n];
+		for(int i = 0; i < n; i++){
+			HumanTeleporter h = world.humans.get(random.nextInt(world.humans.size()));
+			Coordinate c;
+			do {
+				c = new Coordinate(h.getHome().x + random.nextGaussian() * spread, h.getHome().y + random.nextGaussian() * spread);
+			} while(!world.land.contains(c));
+			points[i] = c;
+		}
+		return points;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// BENCHMARKS ////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	Benchmark create(String name, final String snapshot) throws Exception {
+		
+		final MersenneTwisterFast random = new MersenneTwisterFast(seed);
+		final int n = operationsPerIteration;
+		
+		if(name.equals("step")){
+			return new Benchmark(name, ticksPerIteration, null){
+				void setup(){
+					if(world != null) world.finish();
+					world = startWorld(snapshot, seed);
+				}
+				void run(){
+					for(int i = 0; i < ticksPerIteration; i++)
+						world.schedule.step(world);
+					sink += world.humans.size();
+				}
+			};
+		}
+		
+		final ModernPump world = startWorld(snapshot, seed);
+		
+		if(name.equals("contacts")){
+			final TransmissionEngine engine = world.transmission;
+			final Disease disease = world.diseases.get(0);
+			final Bag exposed = new Bag();
+			return new Benchmark(name, n, world){
+				void run(){
+					for(int i = 0; i < n; i++){
+						HumanTeleporter h = world.humans.get(random.nextInt(world.humans.size()));
+						exposed.clear();
+						engine.expose(world, disease, h, exposed);
+						sink += exposed.numObjs;
+					}
+				}
+			};
+		}
+		else if(name.equals("pickPlaceToVisit")){
+			return new Benchmark(name, n, world){
+				void run(){
+					for(int i = 0; i < n; i++)
+						sink += world.humans.get(random.nextInt(world.humans.size())).pickPlaceToVisit();
+				}
+			};
+		}
+		else if(name.equals("clearPath")){
+			final Coordinate [] from = samplePoints(world, n, 0, random), to = samplePoints(world, n, 2000, random);
+			return new Benchmark(name, n, world){
+				void run(){
+					for(int i = 0; i < n; i++)
+						sink += Human.clearPath(world, from[i], to[i]).size();
+				}
+			};
+		}
+		else if(name.equals("getClosestEdge") || name.equals("getClosestGeoNode")){
+			indexRoadNetwork(world);
+			final Coordinate [] points = samplePoints(world, n, 20, random);
+			final boolean edges = name.equals("getClosestEdge");
+			return new Benchmark(name, n, world){
+				void run(){
+					for(int i = 0; i < n; i++){
+						Object o = edges ? world.getClosestEdge(points[i]) : world.getClosestGeoNode(points[i]);
+						if(o != null) sink++;
+					}
+				}
+			};
+		}
+		else if(name.equals("setupAgents")){
+			final ArrayList <Coordinate> homes = new ArrayList <Coordinate> ();
+			for(HumanTeleporter h: world.humans)
+				homes.add(h.getHome());
+			return new Benchmark(name, homes.size(), world){
+				void setup(){
+					world.humans = new ArrayList <HumanTeleporter> (homes.size());
+					world.population = new Population(homes.size(), world.humanLayer, 0, world.streamSeed(ModernPump.stream_AGENTS));
+					world.contactIndex = new ContactGrid(world.MBR, ModernPump.contactRadius);
+					world.agentSchedule = new AgentCalendar(ModernPump.agentScheduleHorizon);
+					world.numAgentIndices = 0;
+				}
+				void run(){
+					world.setupAgents(homes);
+					sink += world.humans.size();
+				}
+			};
+		}
+		throw new IllegalArgumentException("no benchmark called " + name);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// RUNNING ///////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Run each of the benchmarks against each of the worlds, adding the results to the results file
+	 */
+	public void run(String [] worlds, String [] benchmarks) throws Exception {
+		
+		String date = new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date());
+		String java = System.getProperty("java.version");
+		
+		File results = new File(resultsFile);
+		boolean isNew = !results.exists();
+		if(results.getAbsoluteFile().getParentFile() != null)
+			results.getAbsoluteFile().getParentFile().mkdirs();
+		BufferedWriter w = new BufferedWriter(new FileWriter(results, true));
+		if(isNew)
+			w.write("date\tworld\tagents\tbenchmark\titerations\tmeanNs\tstdDevNs\tminNs\tjava\n");
+		
+		try {
+			for(String world: worlds){
+				String snapshot = snapshotFor(world);
+				ModernPump pump = startWorld(snapshot, seed);
+				int numAgents = pump.humans.size();
+				pump.finish();
+				
+				for(String name: benchmarks){
+					Benchmark b = create(name, snapshot);
+					double [] nsPerOperation = measure(b);
+					b.finish();
+					
+					double mean = 0, variance = 0, min = Double.MAX_VALUE;
+					for(double t: nsPerOperation){
+						mean += t / nsPerOperation.length;
+						min = Math.min(min, t);
+					}
+					for(double t: nsPerOperation)
+						variance += (t - mean) * (t - mean) / Math.max(1, nsPerOperation.length - 1);
+					
+					System.out.println(String.format("%-10s %-18s %14.1f ns/op  +- %-12.1f (min %.1f)",
+							world, name, mean, Math.sqrt(variance), min));
+					w.write(date + "\t" + world + "\t" + numAgents + "\t" + name + "\t" + nsPerOperation.length
+							+ "\t" + mean + "\t" + Math.sqrt(variance) + "\t" + min + "\t" + java + "\n");
+					w.flush();
+				}
+			}
+		} finally {
+			w.close();
+		}
+		System.out.println("(" + sink + ")");
+	}
+	
+	/**
+	 * @return the time per operation of each measured iteration, in nanoseconds
+	 */
+	double [] measure(Benchmark b) throws Exception {
+		double [] result = new double [iterations];
+		for(int i = 0; i < warmupIterations + iterations; i++){
+			b.setup();
+			long start = System.nanoTime();
+			b.run();
+			long elapsed = System.nanoTime() - start;
+			if(i >= warmupIterations)
+				result[i - warmupIterations] = (double) elapsed / b.operations;
+		}
+		return result;
+	}
+	
+	/**
+	 * To run the benchmarks:
+	 *
+	 * 		Benchmarks resultsFile [worlds] [benchmarks] [iterations]
+	 *
+	 * where worlds is a comma-separated list of "jacmel" and numbers of agents for synthetic worlds
+	 * (by default 10000,50000,jacmel) and benchmarks a comma-separated list of the benchmarks to run
+	 * (by default all of them). The worlds' snapshots are kept next to the results file.
+	 */
+	public static void main(String [] args) throws Exception {
+		
+		if(args.length < 1){
+			System.out.println("usage: Benchmarks resultsFile [worlds] [benchmarks] [iterations]");
+			System.out.println("benchmarks: " + Arrays.toString(allBenchmarks));
+			System.exit(0);
+		}
+		
+		String [] worlds = (args.length > 1 ? args[1] : "10000,50000,jacmel").split(",");
+		String [] benchmarks = args.length > 2 ? args[2].split(",") : allBenchmarks;
+		if(args.length > 3)
+			iterations = Integer.parseInt(args[3]);
+		
+		File parent = new File(args[0]).getAbsoluteFile().getParentFile();
+		new Benchmarks(args[0], new File(parent, "snapshots").getPath()).run(worlds, benchmarks);
+		System.exit(0);
+	}
+}
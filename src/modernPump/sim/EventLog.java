@@ -0,0 +1,238 @@
+package modernPump.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stream of typed events (infections, changes of stage, visits to health facilities, deaths and
+ * agents in a state they should never reach), written out by a background thread so that the
+ * simulation never waits on the console or the disk.
+ *
+ * The simulation thread records each event into a ring of preallocated primitive arrays and moves
+ * on: recording costs a handful of array writes and no allocation, and an event type which is not
+ * enabled costs a single test. The writer thread drains the ring behind it. The ring has a single
+ * producer and a single consumer, so neither side ever takes a lock; the producer only waits if it
+ * gets a whole ring ahead of the writer.
+ *
+ * Events can be written as text (as they used to be printed), as CSV, or in a compact binary form
+ * of fixed-length records:
+ *
+ * 		magic (int), version (int), then per event: type (byte), tick, agent, value (int), x, y (double)
+ *
+ * The meaning of the value depends on the type of event: the disease for an infection, the new
+ * stage for a change of stage, the activity of an agent in trouble, and nothing otherwise.
+ *
+ * @author swise
+ *
+ */
+public class EventLog {
+	
+	public static final int event_INFECTED = 0;
+	public static final int event_STAGE = 1;
+	public static final int event_FACILITY = 2;
+	public static final int event_DIED = 3;
+	public static final int event_PROBLEM = 4;
+	static final String [] eventNames = {"INFECTED", "STAGE", "FACILITY", "DIED", "PROBLEM"};
+	
+	public static final int format_TEXT = 0;
+	public static final int format_CSV = 1;
+	public static final int format_BINARY = 2;
+	
+	static final int magic = 0x4d504556; // "MPEV"
+	static final int version = 1;
+	
+	/** @return the flag enabling the given type of event */
+	public static int flag(int type){ return 1 << type; }
+	
+	public static final int all = (1 << eventNames.length) - 1;
+	
+	int enabled; // the flags of the types of event to be recorded
+	int format;
+	
+	// the ring of events, one array per field
+	int mask;
+	byte [] types;
+	int [] ticks, agents, values;
+	double [] xs, ys;
+	
+	AtomicLong head = new AtomicLong(), tail = new AtomicLong(); // the next event to be recorded, and to be written
+	volatile boolean closed = false;
+	long numStalls = 0; // the number of times the simulation had to wait for the writer
+	
+	boolean ownsStream; // whether the stream is closed along with the log
+	DataOutputStream out;
+	StringBuilder line = new StringBuilder();
+	IOException failure = null;
+	Thread writer;
+	
+	/**
+	 * Write the events to the given file
+	 */
+	public EventLog(String filename, int format, int enabled, int capacity) throws IOException {
+		this(new FileOutputStream(filename), true, format, enabled, capacity);
+	}
+	
+	/**
+	 * Write the events to the given stream, which is flushed but left open when the log is closed
+	 */
+	public EventLog(OutputStream stream, int format, int enabled, int capacity) throws IOException {
+		this(stream, false, format, enabled, capacity);
+	}
+	
+	EventLog(OutputStream stream, boolean ownsStream, int format, int enabled, int capacity) throws IOException {
+		this.ownsStream = ownsStream;
+		this.format = format;
+		this.enabled = enabled;
+		
+		int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = n - 1;
+		types = new byte [n];
+		ticks = new int [n];
+		agents = new int [n];
+		values = new int [n];
+		xs = new double [n];
+		ys = new double [n];
+		
+		out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		if(format == format_BINARY){
+			out.writeInt(magic);
+			out.writeInt(version);
+		}
+		else if(format == format_CSV)
+			out.writeBytes("tick,event,agent,value,x,y\n");
+		
+		writer = new Thread(new Runnable(){
+			public void run(){ drain(); }
+		}, "event log writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/** @return whether events of the given type are being recorded */
+	public boolean isEnabled(int type){
+		return (enabled & flag(type)) != 0;
+	}
+	
+	/**
+	 * Record an event. Only ever to be called from the simulation's thread.
+	 */
+	public void log(int type, long tick, int agent, int value, double x, double y){
+		if((enabled & flag(type)) == 0)
+			return;
+		
+		long h = head.get();
+		if(h - tail.get() > mask){ // the ring is full: wait for the writer to catch up
+			numStalls++;
+			while(h - tail.get() > mask)
+				LockSupport.parkNanos(10000);
+		}
+		
+		int i = (int) h & mask;
+		types[i] = (byte) type;
+		ticks[i] = (int) tick;
+		agents[i] = agent;
+		values[i] = value;
+		xs[i] = x;
+		ys[i] = y;
+		head.lazySet(h + 1); // publishes the event to the writer
+	}
+	
+	// the writer thread's loop: write out whatever has been recorded, until the log is closed and empty
+	void drain(){
+		while(true){
+			long t = tail.get(), h = head.get();
+			if(t == h){
+				if(closed && head.get() == t)
+					break;
+				flush();
+				LockSupport.parkNanos(1000000);
+				continue;
+			}
+			for(; t < h; t++)
+				write((int) t & mask);
+			tail.lazySet(h); // frees the written events' slots for reuse
+		}
+		flush();
+	}
+	
+	void write(int i){
+		if(failure != null)
+			return; // keep draining, so that the simulation never waits on a broken stream
+		try {
+			if(format == format_BINARY){
+				out.writeByte(types[i]);
+				out.writeInt(ticks[i]);
+				out.writeInt(agents[i]);
+				out.writeInt(values[i]);
+				out.writeDouble(xs[i]);
+				out.writeDouble(ys[i]);
+				return;
+			}
+			
+			line.setLength(0);
+			if(format == format_CSV)
+				line.append(ticks[i]).append(',').append(eventNames[types[i]]).append(',').append(agents[i])
+					.append(',').append(values[i]).append(',').append(xs[i]).append(',').append(ys[i]);
+			else
+				describe(i);
+			line.append('\n');
+			out.writeBytes(line.toString());
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+	
+	// the event in words, as it used to be printed
+	void describe(int i){
+		line.append("id_").append(agents[i]);
+		switch(types[i]){
+		case event_INFECTED: line.append(" INFECTED"); break;
+		case event_STAGE: line.append(" ENTERED STAGE ").append(values[i]); break;
+		case event_FACILITY: line.append(" CHECKED INTO MEDICAL FACILITY"); break;
+		case event_DIED: line.append(" DIED"); break;
+		default: line.append(" PROBLEM WITH THIS AGENT");
+		}
+	}
+	
+	void flush(){
+		if(failure != null)
+			return;
+		try {
+			out.flush();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+	
+	/**
+	 * Write out every event recorded so far and stop the writer
+	 *
+	 * @throws IOException if any of the events could not be written
+	 */
+	public void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(ownsStream)
+			out.close();
+		if(failure != null)
+			throw failure;
+	}
+	
+	/** @return the number of events recorded so far */
+	public long getNumEvents(){ return head.get(); }
+	
+	/** @return the number of times the simulation had to wait for the writer to make room */
+	public long getNumStalls(){ return numStalls; }
+}
@@ -0,0 +1,599 @@
+package modernPump.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import modernPump.agents.diseases.EpidemicState;
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks that changes made to speed the simulation up leave its results alone. A golden run is the
+ * trajectory of one run with a fixed seed and world: the S/I/R counts of every disease at the end
+ * of every tick, and every infection and death (when, and to whom). Once recorded, it can be
+ * checked against a rerun in any mode:
+ *
+ * 		GoldenRun record goldenFile ticks [seed] [snapshotFile]
+ * 		GoldenRun check goldenFile [mode]
+ *
+ * A rerun must reproduce the golden run exactly, and the check reports the first point at which
+ * it does not. Given a snapshot, the world is built and saved to it before the golden run is
+ * recorded, so that the golden run and every rerun restore the same world. The key of the world
+ * (see WorldSnapshot.key()) is recorded with the run, and a rerun in a world which has since
+ * changed fails the check. The events of each tick are compared as a set, as the order in which they are
+ * logged within a tick depends on how the world is split into strips. Modes which are not
+ * expected to reproduce a serial run step for step are instead checked statistically, against an
+ * ensemble of serial replicates with seeds drawn from a base seed:
+ *
+ * 		GoldenRun recordEnsemble ensembleFile replicates ticks [baseSeed] [snapshotFile]
+ * 		GoldenRun checkEnsemble ensembleFile mode [replicates]
+ *
+ * The final size, peak prevalence, time of the peak and number of deaths of each replicate are
+ * compared between the two ensembles with two-sample Kolmogorov-Smirnov tests, and the check fails
+ * if any of them shows a difference significant at the chosen level.
+ *
+ * Modes are registered by name. "serial" is the plain simulation, and "parallel" splits the world
+ * into strips whose agents are moved, and whose hosts' contacts are found, in parallel. As every
+ * agent and disease draws from random streams of its own, the parallel mode should reproduce a
+ * serial run exactly. So should a run split into regions, each simulated by a process of its own
+ * (see RegionHub):
+ *
+ * 		GoldenRun checkRegions goldenFile regions
+ *
+ * A world which is stopped and started again must also come out the same the second time round as
+ * a fresh one, with nothing carried over from its first run:
+ *
+ * 		GoldenRun checkRestart goldenFile [mode]
+ *
+ * @author swise
+ *
+ */
+public class GoldenRun {
+	
+	/**
+	 * A way of setting up the simulation, applied to each world before it is started
+	 */
+	public interface Mode {
+		public void configure(ModernPump world);
+	}
+	
+	public static int numStrips = Math.max(2, Runtime.getRuntime().availableProcessors()); // the strips used by the parallel mode
+	
+	public static LinkedHashMap <String, Mode> modes = new LinkedHashMap <String, Mode> ();
+	static {
+		modes.put("serial", new Mode(){
+			public void configure(ModernPump world){}
+		});
+		modes.put("parallel", new Mode(){
+			public void configure(ModernPump world){
+				world.numStrips = numStrips;
+			}
+		});
+	}
+	
+	public static double significance = .01; // the level at which the ensemble tests fail
+	
+	static final String goldenHeader = "modernPump golden run";
+	static final String ensembleHeader = "modernPump ensemble";
+	static final String [] statisticNames = {"finalSize", "peakInfected", "peakTick", "deaths"};
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// TRAJECTORIES //////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Everything recorded about one run
+	 */
+	public static class Trajectory {
+		
+		long seed;
+		int ticks;
+		String snapshot; // the world the run was restored from, or null if it was built from the data
+		String world; // identifies the world the run saw (see worldId())
+		ArrayList <String> diseases = new ArrayList <String> ();
+		int [][][] sir; // [disease][tick][S, I, R]
+		
+		// the infections and deaths, by tick, then type, then agent
+		int numEvents = 0;
+		int [] eventTicks = new int [256], eventTypes = new int [256], eventAgents = new int [256];
+		
+		void addEvent(int tick, int type, int agent){
+			if(numEvents == eventTicks.length){
+				eventTicks = Arrays.copyOf(eventTicks, 2 * numEvents);
+				eventTypes = Arrays.copyOf(eventTypes, 2 * numEvents);
+				eventAgents = Arrays.copyOf(eventAgents, 2 * numEvents);
+			}
+			eventTicks[numEvents] = tick;
+			eventTypes[numEvents] = type;
+			eventAgents[numEvents] = agent;
+			numEvents++;
+		}
+		
+		/** Put the events of each tick into order by type, then agent */
+		void sortEvents(){
+			long [] keys = new long [numEvents];
+			for(int i = 0; i < numEvents; i++)
+				keys[i] = ((long) eventTicks[i] << 40) | ((long) eventTypes[i] << 32) | (eventAgents[i] & 0xffffffffL);
+			Arrays.sort(keys);
+			for(int i = 0; i < numEvents; i++){
+				eventTicks[i] = (int) (keys[i] >>> 40);
+				eventTypes[i] = (int) (keys[i] >>> 32) & 0xff;
+				eventAgents[i] = (int) keys[i];
+			}
+		}
+		
+		/** @return the summary statistics of the run, as named in statisticNames */
+		double [] statistics(){
+			int [][] curve = sir[0];
+			int last = curve[ticks - 1][1] + curve[ticks - 1][2], peak = -1, peakTick = 0, deaths = 0;
+			for(int t = 0; t < ticks; t++)
+				if(curve[t][1] > peak){
+					peak = curve[t][1];
+					peakTick = t;
+				}
+			for(int i = 0; i < numEvents; i++)
+				if(eventTypes[i] == EventLog.event_DIED)
+					deaths++;
+			return new double [] {last, peak, peakTick, deaths};
+		}
+		
+		void write(String filename) throws IOException {
+			BufferedWriter w = new BufferedWriter(new FileWriter(filename));
+			w.write(goldenHeader + "\n");
+			w.write("seed\t" + seed + "\nticks\t" + ticks + "\nsnapshot\t" + (snapshot == null ? "-" : snapshot) + "\n");
+			w.write("world\t" + world + "\n");
+			w.write("tick\tdisease\tS\tI\tR\n");
+			for(int d = 0; d < diseases.size(); d++)
+				for(int t = 0; t < ticks; t++)
+					w.write(t + "\t" + diseases.get(d) + "\t" + sir[d][t][0] + "\t" + sir[d][t][1] + "\t" + sir[d][t][2] + "\n");
+			w.write("events\t" + numEvents + "\n");
+			for(int i = 0; i < numEvents; i++)
+				w.write(eventTicks[i] + "\t" + EventLog.eventNames[eventTypes[i]] + "\t" + eventAgents[i] + "\n");
+			w.close();
+		}
+		
+		static Trajectory read(String filename) throws IOException {
+			BufferedReader r = new BufferedReader(new FileReader(filename));
+			try {
+				if(!goldenHeader.equals(r.readLine()))
+					throw new IOException(filename + " is not a golden run");
+				Trajectory t = new Trajectory();
+				t.seed = Long.parseLong(value(r.readLine()));
+				t.ticks = Integer.parseInt(value(r.readLine()));
+				t.snapshot = value(r.readLine());
+				if(t.snapshot.equals("-"))
+					t.snapshot = null;
+				t.world = value(r.readLine());
+				
+				r.readLine(); // the column headings
+				ArrayList <int [][]> curves = new ArrayList <int [][]> ();
+				String line;
+				while(!(line = r.readLine()).startsWith("events")){
+					String [] bits = line.split("\t");
+					int tick = Integer.parseInt(bits[0]);
+					if(tick == 0){
+						t.diseases.add(bits[1]);
+						curves.add(new int [t.ticks][]);
+					}
+					curves.get(curves.size() - 1)[tick] = new int [] {Integer.parseInt(bits[2]), Integer.parseInt(bits[3]), Integer.parseInt(bits[4])};
+				}
+				t.sir = curves.toArray(new int [curves.size()][][]);
+				
+				int numEvents = Integer.parseInt(value(line));
+				for(int i = 0; i < numEvents; i++){
+					String [] bits = r.readLine().split("\t");
+					t.addEvent(Integer.parseInt(bits[0]), Arrays.asList(EventLog.eventNames).indexOf(bits[1]), Integer.parseInt(bits[2]));
+				}
+				return t;
+			} finally {
+				r.close();
+			}
+		}
+		
+		static String value(String line){
+			return line.substring(line.indexOf('\t') + 1);
+		}
+	}
+	
+	/**
+	 * Run the simulation in the given mode, recording its trajectory
+	 */
+	public static Trajectory run(long seed, int ticks, String snapshot, Mode mode) throws IOException {
+		return run(seed, ticks, snapshot, mode, false);
+	}
+	
+	/**
+	 * As run(seed, ticks, snapshot, mode). If restarted, the world is first run and finished once,
+	 * then reseeded and started again, as when the GUI is stopped and played again; the trajectory
+	 * is that of the second run
+	 */
+	public static Trajectory run(long seed, int ticks, String snapshot, Mode mode, boolean restarted) throws IOException {
+		
+		final Trajectory t = new Trajectory();
+		t.seed = seed;
+		t.ticks = ticks;
+		t.snapshot = snapshot;
+		t.world = worldId(snapshot);
+		
+		// the infections and deaths are taken from the event log
+		File eventFile = File.createTempFile("golden", ".events");
+		eventFile.deleteOnExit();
+		
+		final ModernPump world = new ModernPump(seed);
+		world.snapshotFile = snapshot;
+		world.eventLogFile = eventFile.getPath();
+		world.eventLogFormat = EventLog.format_BINARY;
+		world.loggedEvents = EventLog.flag(EventLog.event_INFECTED) | EventLog.flag(EventLog.event_DIED);
+		mode.configure(world);
+		if(restarted){
+			world.start();
+			for(int i = 0; i < ticks; i++)
+				world.schedule.step(world);
+			world.finish();
+			world.seedRandom(seed);
+		}
+		world.start();
+		
+		for(int d = 0; d < world.diseases.size(); d++)
+			t.diseases.add(world.diseases.get(d).getName());
+		t.sir = new int [world.diseases.size()][ticks][];
+		
+		// record the counts at the end of every tick, once the agents have moved (ordering 200)
+		world.schedule.scheduleRepeating(Schedule.EPOCH, 200, new Steppable(){
+			private static final long serialVersionUID = 1L;
+			
+			public void step(SimState state){
+				int tick = (int) state.schedule.getTime();
+				if(tick >= t.ticks) return;
+				for(int d = 0; d < t.sir.length; d++){
+					EpidemicState s = world.diseases.get(d).state;
+					t.sir[d][tick] = new int [] {s.getNumSusceptible(world.humans.size() + world.numDied),
+							s.getNumInfected(), s.getNumRecovered()};
+				}
+			}
+		}, 1);
+		
+		for(int i = 0; i < ticks; i++)
+			world.schedule.step(world);
+		world.finish();
+		
+		readEvents(eventFile, t);
+		t.sortEvents();
+		return t;
+	}
+	
+	/**
+	 * Run the simulation split into the given number of regions, each in a process of its own,
+	 * recording its trajectory
+	 */
+	public static Trajectory runRegions(long seed, int ticks, String snapshot, int numRegions) throws IOException {
+		
+		Trajectory t = new Trajectory();
+		t.seed = seed;
+		t.ticks = ticks;
+		t.snapshot = snapshot;
+		t.world = worldId(snapshot);
+		
+		// each region writes its infections and deaths to a log of its own
+		File eventFile = File.createTempFile("golden", ".events");
+		eventFile.delete();
+		
+		RegionHub hub = new RegionHub(numRegions, seed, ticks);
+		hub.snapshotFile = snapshot;
+		hub.eventLogFile = eventFile.getPath();
+		hub.eventLogFormat = EventLog.format_BINARY;
+		hub.loggedEvents = EventLog.flag(EventLog.event_INFECTED) | EventLog.flag(EventLog.event_DIED);
+		hub.run();
+		
+		t.diseases = hub.diseases;
+		t.sir = hub.sir;
+		for(int r = 0; r < numRegions; r++)
+			readEvents(new File(eventFile.getPath() + "." + r), t);
+		t.sortEvents();
+		return t;
+	}
+	
+	/**
+	 * Build the world and save it to the snapshot, unless it already holds one which would be
+	 * restored, so that runs from then on all restore the same world
+	 */
+	static void prepareSnapshot(String snapshot) throws IOException {
+		ModernPump world = new ModernPump(0);
+		if(snapshot == null || WorldSnapshot.isRestorable(world, snapshot))
+			return;
+		System.out.println("Building the world snapshot " + snapshot + "...");
+		world.snapshotFile = snapshot;
+		world.loggedEvents = 0;
+		world.start();
+		world.finish();
+	}
+	
+	/**
+	 * @return an identifier of the world a run would see: the key of the snapshot it would restore,
+	 * or else of the world it would build from the data
+	 */
+	static String worldId(String snapshot) throws IOException {
+		ModernPump world = new ModernPump(0);
+		String key = snapshot != null && WorldSnapshot.isRestorable(world, snapshot) ? WorldSnapshot.readKey(snapshot) : WorldSnapshot.key(world);
+		return String.format("%08x", key.hashCode());
+	}
+	
+	/**
+	 * Add the events in the given binary event log to the trajectory, and delete the log
+	 */
+	static void readEvents(File eventFile, Trajectory t) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(eventFile)));
+		try {
+			if(in.readInt() != EventLog.magic || in.readInt() != EventLog.version)
+				throw new IOException("unexpected event log format");
+			while(true){
+				int type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				int tick = in.readInt(), agent = in.readInt();
+				in.readInt(); // the value
+				in.readDouble(); // the position
+				in.readDouble();
+				t.addEvent(tick, type, agent);
+			}
+		} finally {
+			in.close();
+			eventFile.delete();
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// CHECKS ////////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return a description of the first difference between the golden run and the candidate, or
+	 * null if they are the same
+	 */
+	public static String firstDifference(Trajectory golden, Trajectory candidate){
+		
+		if(!golden.world.equals(candidate.world))
+			return "the world was " + candidate.world + ", expected " + golden.world + ": the data or parameters have changed since the golden run";
+		
+		if(!golden.diseases.equals(candidate.diseases))
+			return "diseases were " + candidate.diseases + ", expected " + golden.diseases;
+		
+		for(int t = 0; t < golden.ticks; t++)
+			for(int d = 0; d < golden.sir.length; d++)
+				if(!Arrays.equals(golden.sir[d][t], candidate.sir[d][t]))
+					return "tick " + t + ": " + golden.diseases.get(d) + " S/I/R were " + Arrays.toString(candidate.sir[d][t])
+							+ ", expected " + Arrays.toString(golden.sir[d][t]);
+		
+		for(int i = 0; i < Math.min(golden.numEvents, candidate.numEvents); i++)
+			if(golden.eventTicks[i] != candidate.eventTicks[i] || golden.eventTypes[i] != candidate.eventTypes[i]
+					|| golden.eventAgents[i] != candidate.eventAgents[i])
+				return "event " + i + " was " + describe(candidate, i) + ", expected " + describe(golden, i);
+		
+		if(golden.numEvents != candidate.numEvents)
+			return candidate.numEvents + " events, expected " + golden.numEvents;
+		return null;
+	}
+	
+	static String describe(Trajectory t, int i){
+		return "id_" + t.eventAgents[i] + " " + EventLog.eventNames[t.eventTypes[i]] + " at tick " + t.eventTicks[i];
+	}
+	
+	/**
+	 * @return the p-value of the two-sample Kolmogorov-Smirnov test of whether the two samples come
+	 * from the same distribution
+	 */
+	public static double kolmogorovSmirnov(double [] a, double [] b){
+		a = a.clone();
+		b = b.clone();
+		Arrays.sort(a);
+		Arrays.sort(b);
+		
+		// the greatest distance between the two empirical distribution functions
+		double d = 0;
+		int i = 0, j = 0;
+		while(i < a.length && j < b.length){
+			double x = Math.min(a[i], b[j]);
+			while(i < a.length && a[i] == x) i++;
+			while(j < b.length && b[j] == x) j++;
+			d = Math.max(d, Math.abs((double) i / a.length - (double) j / b.length));
+		}
+		
+		// the asymptotic distribution of the statistic, with the usual correction for small samples
+		double n = Math.sqrt((double) a.length * b.length / (a.length + b.length));
+		double lambda = (n + .12 + .11 / n) * d;
+		if(lambda < .2)
+			return 1;
+		double p = 0, sign = 1;
+		for(int k = 1; k <= 100; k++){
+			double term = sign * Math.exp(-2 * k * k * lambda * lambda);
+			p += term;
+			if(Math.abs(term) < 1e-10)
+				break;
+			sign = -sign;
+		}
+		return Math.max(0, Math.min(1, 2 * p));
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// ENSEMBLES /////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return the summary statistics of each replicate, run with seeds drawn from the base seed
+	 */
+	static double [][] runEnsemble(int replicates, int ticks, long baseSeed, String snapshot, Mode mode) throws IOException {
+		MersenneTwisterFast seeder = new MersenneTwisterFast(baseSeed);
+		double [][] statistics = new double [replicates][];
+		for(int i = 0; i < replicates; i++){
+			statistics[i] = run(seeder.nextLong(), ticks, snapshot, mode).statistics();
+			System.out.println("replicate " + i + ": " + Arrays.toString(statistics[i]));
+		}
+		return statistics;
+	}
+	
+	static void writeEnsemble(String filename, int ticks, long baseSeed, String snapshot, double [][] statistics) throws IOException {
+		BufferedWriter w = new BufferedWriter(new FileWriter(filename));
+		w.write(ensembleHeader + "\n");
+		w.write("baseSeed\t" + baseSeed + "\nticks\t" + ticks + "\nsnapshot\t" + (snapshot == null ? "-" : snapshot) + "\n");
+		w.write("world\t" + worldId(snapshot) + "\n");
+		for(int s = 0; s < statisticNames.length; s++)
+			w.write((s > 0 ? "\t" : "") + statisticNames[s]);
+		w.write("\n");
+		for(double [] replicate: statistics){
+			for(int s = 0; s < replicate.length; s++)
+				w.write((s > 0 ? "\t" : "") + replicate[s]);
+			w.write("\n");
+		}
+		w.close();
+	}
+	
+	/**
+	 * Run an ensemble in the given mode and test it against the recorded one
+	 *
+	 * @return whether none of the statistics differ significantly
+	 */
+	static boolean checkEnsemble(String filename, Mode mode, int replicates) throws IOException {
+		
+		BufferedReader r = new BufferedReader(new FileReader(filename));
+		long baseSeed;
+		int ticks;
+		String snapshot, world;
+		ArrayList <double []> reference = new ArrayList <double []> ();
+		try {
+			if(!ensembleHeader.equals(r.readLine()))
+				throw new IOException(filename + " is not an ensemble");
+			baseSeed = Long.parseLong(Trajectory.value(r.readLine()));
+			ticks = Integer.parseInt(Trajectory.value(r.readLine()));
+			snapshot = Trajectory.value(r.readLine());
+			if(snapshot.equals("-"))
+				snapshot = null;
+			world = Trajectory.value(r.readLine());
+			r.readLine(); // the column headings
+			for(String line = r.readLine(); line != null && line.length() > 0; line = r.readLine()){
+				String [] bits = line.split("\t");
+				double [] replicate = new double [bits.length];
+				for(int s = 0; s < bits.length; s++)
+					replicate[s] = Double.parseDouble(bits[s]);
+				reference.add(replicate);
+			}
+		} finally {
+			r.close();
+		}
+		
+		if(!world.equals(worldId(snapshot))){
+			System.out.println("The world is " + worldId(snapshot) + ", expected " + world + ": the data or parameters have changed since the ensemble");
+			return false;
+		}
+		
+		// the candidate replicates get seeds of their own, so that they are independent of the reference
+		double [][] candidate = runEnsemble(replicates > 0 ? replicates : reference.size(), ticks, ~baseSeed, snapshot, mode);
+		
+		boolean passed = true;
+		for(int s = 0; s < statisticNames.length; s++){
+			double [] a = new double [reference.size()], b = new double [candidate.length];
+			for(int i = 0; i < a.length; i++) a[i] = reference.get(i)[s];
+			for(int i = 0; i < b.length; i++) b[i] = candidate[i][s];
+			double p = kolmogorovSmirnov(a, b);
+			boolean ok = p >= significance;
+			passed &= ok;
+			System.out.println(String.format("%-14s reference mean %12.2f  candidate mean %12.2f  p = %.4f  %s",
+					statisticNames[s], mean(a), mean(b), p, ok ? "ok" : "DIFFERENT"));
+		}
+		return passed;
+	}
+	
+	static double mean(double [] a){
+		double total = 0;
+		for(double x: a) total += x;
+		return a.length == 0 ? 0 : total / a.length;
+	}
+	
+	static Mode mode(String name){
+		Mode m = modes.get(name);
+		if(m == null)
+			throw new IllegalArgumentException("no mode called " + name + "; the modes are " + modes.keySet());
+		return m;
+	}
+	
+	public static void main(String [] args) throws Exception {
+		
+		if(args.length < 2){
+			System.out.println("usage: GoldenRun record goldenFile ticks [seed] [snapshotFile]");
+			System.out.println("       GoldenRun check goldenFile [mode]");
+			System.out.println("       GoldenRun recordEnsemble ensembleFile replicates ticks [baseSeed] [snapshotFile]");
+			System.out.println("       GoldenRun checkEnsemble ensembleFile mode [replicates]");
+			System.out.println("       GoldenRun checkRegions goldenFile regions");
+			System.out.println("       GoldenRun checkRestart goldenFile [mode]");
+			System.out.println("modes: " + modes.keySet());
+			System.exit(0);
+		}
+		
+		String command = args[0], filename = args[1];
+		boolean passed = true;
+		
+		if(command.equals("record")){
+			int ticks = Integer.parseInt(args[2]);
+			long seed = args.length > 3 ? Long.parseLong(args[3]) : 703356;
+			String snapshot = args.length > 4 ? args[4] : null;
+			prepareSnapshot(snapshot);
+			run(seed, ticks, snapshot, mode("serial")).write(filename);
+			System.out.println("Recorded the golden run in " + filename);
+		}
+		else if(command.equals("check")){
+			Trajectory golden = Trajectory.read(filename);
+			String modeName = args.length > 2 ? args[2] : "serial";
+			String difference = firstDifference(golden, run(golden.seed, golden.ticks, golden.snapshot, mode(modeName)));
+			passed = difference == null;
+			System.out.println(passed ? "The " + modeName + " run matches the golden run" : "The " + modeName + " run differs: " + difference);
+		}
+		else if(command.equals("checkRegions")){
+			Trajectory golden = Trajectory.read(filename);
+			int numRegions = Integer.parseInt(args[2]);
+			String difference = firstDifference(golden, runRegions(golden.seed, golden.ticks, golden.snapshot, numRegions));
+			passed = difference == null;
+			System.out.println(passed ? "The run in " + numRegions + " regions matches the golden run"
+					: "The run in " + numRegions + " regions differs: " + difference);
+		}
+		else if(command.equals("checkRestart")){
+			Trajectory golden = Trajectory.read(filename);
+			String modeName = args.length > 2 ? args[2] : "serial";
+			String difference = firstDifference(golden, run(golden.seed, golden.ticks, golden.snapshot, mode(modeName), true));
+			passed = difference == null;
+			System.out.println(passed ? "The restarted " + modeName + " run matches the golden run"
+					: "The restarted " + modeName + " run differs: " + difference);
+		}
+		else if(command.equals("recordEnsemble")){
+			int replicates = Integer.parseInt(args[2]), ticks = Integer.parseInt(args[3]);
+			long baseSeed = args.length > 4 ? Long.parseLong(args[4]) : 703356;
+			String snapshot = args.length > 5 ? args[5] : null;
+			prepareSnapshot(snapshot);
+			writeEnsemble(filename, ticks, baseSeed, snapshot, runEnsemble(replicates, ticks, baseSeed, snapshot, mode("serial")));
+			System.out.println("Recorded the ensemble in " + filename);
+		}
+		else if(command.equals("checkEnsemble")){
+			int replicates = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+			passed = checkEnsemble(filename, mode(args[2]), replicates);
+			System.out.println(passed ? "No significant differences from the ensemble" : "The ensembles differ");
+		}
+		else
+			throw new IllegalArgumentException("no command called " + command);
+		
+		System.exit(passed ? 0 : 1);
+	}
+}
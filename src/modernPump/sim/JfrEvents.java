@@ -0,0 +1,85 @@
+package modernPump.sim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder events emitted by TickMetrics. Everything which refers to jdk.jfr is kept
+ * in here, and TickMetrics only calls into it once it has found that the JVM has Flight Recorder,
+ * so the rest of the simulation still runs on JVMs without it.
+ *
+ * The events are passed around as Objects for the same reason.
+ *
+ * @author swise
+ *
+ */
+class JfrEvents {
+	
+	@Name("modernPump.Tick")
+	@Label("Tick")
+	@Category("ModernPump")
+	@Description("One tick of the simulation, with the work done in it")
+	@StackTrace(false)
+	static class Tick extends Event {
+		@Label("Tick") long tick;
+		@Label("Agent Steps") long agentSteps;
+		@Label("Contact Queries") long contactQueries;
+		@Label("Candidates Examined") long candidatesExamined;
+		@Label("Infections") long infections;
+		@Label("Movement") @Timespan(Timespan.NANOSECONDS) long movement;
+		@Label("Transmission") @Timespan(Timespan.NANOSECONDS) long transmission;
+		@Label("Scheduling") @Timespan(Timespan.NANOSECONDS) long scheduling;
+	}
+	
+	@Name("modernPump.Phase")
+	@Label("Phase")
+	@Category("ModernPump")
+	@Description("A phase of a tick of the simulation")
+	@StackTrace(false)
+	static class Phase extends Event {
+		@Label("Phase") String phase;
+		@Label("Tick") long tick;
+	}
+	
+	static Object beginTick(){
+		Tick e = new Tick();
+		e.begin();
+		return e;
+	}
+	
+	static void commitTick(Object event, long tick, long agentSteps, long contactQueries, long candidatesExamined,
+			long infections, long movement, long transmission, long scheduling){
+		Tick e = (Tick) event;
+		if(!e.shouldCommit())
+			return;
+		e.tick = tick;
+		e.agentSteps = agentSteps;
+		e.contactQueries = contactQueries;
+		e.candidatesExamined = candidatesExamined;
+		e.infections = infections;
+		e.movement = movement;
+		e.transmission = transmission;
+		e.scheduling = scheduling;
+		e.commit();
+	}
+	
+	static Object beginPhase(){
+		Phase e = new Phase();
+		e.begin();
+		return e;
+	}
+	
+	static void commitPhase(Object event, String phase, long tick){
+		Phase e = (Phase) event;
+		if(!e.shouldCommit())
+			return;
+		e.phase = phase;
+		e.tick = tick;
+		e.commit();
+	}
+}
@@ -0,0 +1,328 @@
+package modernPump.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Reads a shapefile into a GeomVectorField by memory-mapping its .shp, .shx and .dbf files and
+ * decoding the records straight out of the mapped buffers, rather than streaming them in. Only the
+ * requested attributes are decoded at all: the other fields of each .dbf record are skipped over
+ * without being turned into Strings. Attributes are typed as GeoMASON's ShapeFileImporter types
+ * them, so the two readers can be used interchangeably.
+ *
+ * Unlike ShapeFileImporter, null shapes are skipped rather than ending the read, the Z and M
+ * variants of each shape type are read (keeping only their x and y), and each hole of a
+ * multi-part polygon is given to the outer ring which contains it.
+ *
+ * @author swise
+ *
+ */
+public class MappedShapefileReader {
+	
+	static final int fileCode = 9994;
+	static final int shape_NULL = 0, shape_POINT = 1, shape_POLYLINE = 3, shape_POLYGON = 5, shape_MULTIPOINT = 8;
+	
+	// values in the .dbf are decoded as ShapeFileImporter decodes them, with the platform's charset
+	static final Charset charset = Charset.defaultCharset();
+	
+	GeometryFactory factory = new GeometryFactory();
+	
+	/**
+	 * Read the given shapefile into the layer
+	 *
+	 * @param filename - the .shp file
+	 * @param attributes - the names of the attributes to read, or null or empty to read all of them
+	 * @return the number of geometries added to the layer
+	 */
+	public static int read(String filename, GeomVectorField layer, Bag attributes) throws IOException {
+		return new MappedShapefileReader().readInto(filename, layer, attributes);
+	}
+	
+	int readInto(String filename, GeomVectorField layer, Bag attributes) throws IOException {
+		
+		ByteBuffer shp = WorldSnapshot.map(filename);
+		if(shp.limit() < 100 || shp.getInt(0) != fileCode)
+			throw new IOException(filename + " is not a shapefile");
+		shp.order(ByteOrder.LITTLE_ENDIAN); // the record headers are big-endian, everything else little-endian
+		
+		String base = filename.substring(0, filename.length() - ".shp".length());
+		File shxFile = new File(base + ".shx"), dbfFile = new File(base + ".dbf");
+		ByteBuffer shx = shxFile.exists() ? WorldSnapshot.map(shxFile.getPath()) : null;
+		Table dbf = dbfFile.exists() ? new Table(WorldSnapshot.map(dbfFile.getPath()), attributes) : null;
+		
+		// the index gives the offset of each record; without it, walk the records one after another
+		int numRecords = shx != null ? (shx.limit() - 100) / 8 : Integer.MAX_VALUE;
+		int added = 0, offset = 100;
+		for(int i = 0; i < numRecords; i++){
+			
+			if(shx != null)
+				offset = 2 * shx.getInt(100 + 8 * i);
+			if(offset + 12 > shp.limit())
+				break;
+			
+			int contentLength = 2 * Integer.reverseBytes(shp.getInt(offset + 4));
+			Geometry g = readShape(shp, offset + 8);
+			offset += 8 + contentLength;
+			
+			if(g == null)
+				continue; // a null shape, whose attributes are still in the table
+			
+			MasonGeometry mg = new MasonGeometry(g);
+			if(dbf != null && dbf.numFields > 0 && i < dbf.numRecords)
+				mg.addAttributes(dbf.readRecord(i));
+			layer.addGeometry(mg);
+			added++;
+		}
+		return added;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// GEOMETRIES ////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return the shape starting at the given position of the buffer, or null if it is a null shape
+	 */
+	Geometry readShape(ByteBuffer shp, int p) throws IOException {
+		
+		int type = shp.getInt(p);
+		if(type == shape_NULL)
+			return null;
+		
+		// the Z and M variants of each type (11-18 and 21-28) begin with the same x/y part as the plain type
+		int baseType = type > 20 ? type - 20 : type > 10 ? type - 10 : type;
+		p += 4;
+		
+		if(baseType == shape_POINT)
+			return factory.createPoint(new Coordinate(shp.getDouble(p), shp.getDouble(p + 8)));
+		
+		p += 32; // skip the bounding box
+		
+		if(baseType == shape_MULTIPOINT){
+			int numPoints = shp.getInt(p);
+			return factory.createMultiPoint(readCoordinates(shp, p + 4, numPoints));
+		}
+		
+		if(baseType != shape_POLYLINE && baseType != shape_POLYGON)
+			throw new IOException("unsupported shape type " + type);
+		
+		int numParts = shp.getInt(p), numPoints = shp.getInt(p + 4);
+		int points = p + 8 + 4 * numParts;
+		Coordinate [][] parts = new Coordinate [numParts][];
+		for(int i = 0; i < numParts; i++){
+			int start = shp.getInt(p + 8 + 4 * i);
+			int end = i < numParts - 1 ? shp.getInt(p + 12 + 4 * i) : numPoints;
+			parts[i] = readCoordinates(shp, points + 16 * start, end - start);
+		}
+		
+		if(baseType == shape_POLYLINE){
+			if(numParts == 1)
+				return factory.createLineString(parts[0]);
+			LineString [] lines = new LineString [numParts];
+			for(int i = 0; i < numParts; i++)
+				lines[i] = factory.createLineString(parts[i]);
+			return factory.createMultiLineString(lines);
+		}
+		return assemblePolygon(parts);
+	}
+	
+	static Coordinate [] readCoordinates(ByteBuffer shp, int p, int n){
+		Coordinate [] coordinates = new Coordinate [n];
+		for(int i = 0; i < n; i++, p += 16)
+			coordinates[i] = new Coordinate(shp.getDouble(p), shp.getDouble(p + 8));
+		return coordinates;
+	}
+	
+	/**
+	 * Outer rings of a shapefile polygon run clockwise and holes counterclockwise: give each hole
+	 * to the outer ring containing it
+	 */
+	Geometry assemblePolygon(Coordinate [][] rings){
+		
+		ArrayList <Coordinate []> shells = new ArrayList <Coordinate []> (), holes = new ArrayList <Coordinate []> ();
+		for(Coordinate [] ring: rings)
+			(CGAlgorithms.isCCW(ring) ? holes : shells).add(ring);
+		if(shells.isEmpty()){ // wound the wrong way round: treat them all as outer rings
+			shells = holes;
+			holes = new ArrayList <Coordinate []> ();
+		}
+		
+		ArrayList <ArrayList <LinearRing>> holesOf = new ArrayList <ArrayList <LinearRing>> ();
+		for(int i = 0; i < shells.size(); i++)
+			holesOf.add(new ArrayList <LinearRing> ());
+		for(Coordinate [] hole: holes){
+			int owner = 0; // if no outer ring contains it, the first one gets it
+			for(int i = 0; i < shells.size(); i++)
+				if(CGAlgorithms.isPointInRing(hole[0], shells.get(i))){
+					owner = i;
+					break;
+				}
+			holesOf.get(owner).add(factory.createLinearRing(hole));
+		}
+		
+		Polygon [] polygons = new Polygon [shells.size()];
+		for(int i = 0; i < polygons.length; i++){
+			ArrayList <LinearRing> h = holesOf.get(i);
+			polygons[i] = factory.createPolygon(factory.createLinearRing(shells.get(i)), h.toArray(new LinearRing [h.size()]));
+		}
+		return polygons.length == 1 ? polygons[0] : factory.createMultiPolygon(polygons);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// ATTRIBUTES ////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The attribute table of a shapefile, mapped into memory
+	 */
+	static class Table {
+		
+		ByteBuffer dbf;
+		int numRecords, headerLength, recordLength;
+		
+		// the requested fields: their names, types and positions within a record
+		int numFields = 0;
+		String [] names;
+		char [] types;
+		int [] offsets, lengths;
+		
+		byte [] scratch = new byte [256]; // field lengths are held in a byte, so no field is longer than this
+		HashMap <String, String> strings = new HashMap <String, String> (); // repeated values share one String
+		
+		Table(ByteBuffer dbf, Bag attributes){
+			this.dbf = dbf;
+			dbf.order(ByteOrder.LITTLE_ENDIAN);
+			numRecords = dbf.getInt(4);
+			headerLength = dbf.getShort(8) & 0xffff;
+			recordLength = dbf.getShort(10) & 0xffff;
+			
+			int maxFields = (headerLength - 32) / 32;
+			names = new String [maxFields];
+			types = new char [maxFields];
+			offsets = new int [maxFields];
+			lengths = new int [maxFields];
+			
+			// the field descriptors follow the header, until the terminating 0x0d
+			int offset = 1; // each record begins with its deletion flag
+			for(int p = 32; p + 32 <= headerLength && dbf.get(p) != 0x0d; p += 32){
+				int nameLength = 0;
+				while(nameLength < 11 && dbf.get(p + nameLength) != 0)
+					nameLength++;
+				for(int i = 0; i < nameLength; i++)
+					scratch[i] = dbf.get(p + i);
+				String name = new String(scratch, 0, nameLength, charset);
+				int length = dbf.get(p + 16) & 0xff;
+				
+				if(attributes == null || attributes.isEmpty() || attributes.contains(name)){
+					names[numFields] = name;
+					types[numFields] = (char) dbf.get(p + 11);
+					offsets[numFields] = offset;
+					lengths[numFields] = length;
+					numFields++;
+				}
+				offset += length;
+			}
+		}
+		
+		/**
+		 * @return the requested attributes of the given record
+		 */
+		HashMap <String, AttributeValue> readRecord(int record){
+			
+			HashMap <String, AttributeValue> values = new HashMap <String, AttributeValue> (2 * numFields);
+			int base = headerLength + record * recordLength;
+			for(int f = 0; f < numFields; f++){
+				
+				// copy out just this field, and trim it as String.trim() would
+				dbf.position(base + offsets[f]);
+				dbf.get(scratch, 0, lengths[f]);
+				int start = 0, end = lengths[f];
+				while(start < end && (scratch[start] & 0xff) <= ' ') start++;
+				while(end > start && (scratch[end - 1] & 0xff) <= ' ') end--;
+				
+				values.put(names[f], new AttributeValue(decode(types[f], start, end)));
+			}
+			return values;
+		}
+		
+		Object decode(char type, int start, int end){
+			
+			if(start == end)
+				return "";
+			
+			if(type == 'N'){
+				boolean integral = true;
+				for(int p = start; p < end && integral; p++)
+					integral = scratch[p] != '.';
+				if(integral){
+					Integer i = parseInteger(start, end);
+					if(i != null) return i;
+				}
+				try {
+					return Double.valueOf(string(start, end));
+				} catch (NumberFormatException e) {
+					return string(start, end);
+				}
+			}
+			else if(type == 'F'){
+				try {
+					return Double.valueOf(string(start, end));
+				} catch (NumberFormatException e) {
+					return string(start, end);
+				}
+			}
+			else if(type == 'L')
+				return Boolean.valueOf(string(start, end));
+			
+			// anything else is kept as text
+			String s = string(start, end), shared = strings.get(s);
+			if(shared != null)
+				return shared;
+			strings.put(s, s);
+			return s;
+		}
+		
+		/**
+		 * @return the integer written between the given positions, or null if it isn't one that fits in an int
+		 */
+		Integer parseInteger(int start, int end){
+			boolean negative = scratch[start] == '-';
+			int p = negative || scratch[start] == '+' ? start + 1 : start;
+			if(p == end || end - p > 10)
+				return null;
+			long value = 0;
+			for(; p < end; p++){
+				int digit = scratch[p] - '0';
+				if(digit < 0 || digit > 9)
+					return null;
+				value = 10 * value + digit;
+			}
+			if(negative) value = -value;
+			if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+				return null;
+			return (int) value;
+		}
+		
+		String string(int start, int end){
+			return new String(scratch, start, end - start, charset);
+		}
+	}
+}
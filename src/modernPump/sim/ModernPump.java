@@ -12,7 +12,13 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import sim.engine.Schedule;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.field.geo.GeomGridField;
@@ -39,8 +45,18 @@ import swise.objects.network.GeoNode;
 import swise.objects.network.ListEdge;
 import modernPump.agents.Human;
 import modernPump.agents.HumanTeleporter;
+import modernPump.agents.Population;
 import modernPump.agents.diseases.Cholera;
 import modernPump.agents.diseases.Disease;
+import modernPump.agents.diseases.TransmissionEngine;
+import modernPump.objects.ContactGrid;
+import modernPump.objects.FacilityIndex;
+import modernPump.objects.HomeIndex;
+import modernPump.objects.IncidenceGrid;
+import modernPump.objects.LandMask;
+import modernPump.objects.ParallelUnion;
+import modernPump.objects.RecentCases;
+import modernPump.objects.SplitMix;
 
 import org.jfree.data.xy.XYSeries;
 
@@ -76,9 +92,34 @@ public class ModernPump extends SimState {
 
 	public double infectionProb = .30;
 	
+	public static double landMaskResolution = 50; // the cell size of the raster used to speed up tests against the landArea
+	public static double homeIndexResolution = 250; // the cell size of the index used to pick places to visit
+	public static int agentScheduleHorizon = 64; // the number of hours ahead covered by the agent schedule's ring of buckets
+	public static int numLoaderThreads = 4; // the most data layers read in at once during start()
+	public static boolean mappedShapefiles = true; // read shapefiles with MappedShapefileReader rather than GeoMASON's ShapeFileImporter
+	public static double contactRadius = 30; // the cell size of the contact index: should match the diseases' transmissable radius
+	public static double incidenceResolution = 250; // the cell size of the grid in which cases are counted
+	public static int incidenceWindow = 24; // the number of ticks over which each count of cases is taken
+	public int maxRecentCases = 1000; // the most recent cases shown as points in the diseasesLayer
+	public static int eventLogCapacity = 1 << 16; // the most events held in memory before the simulation waits for them to be written
+	public static boolean jfrEvents = true; // also emit the tick metrics as Flight Recorder events, where the JVM supports them
+	public static final int stream_AGENTS = 0, stream_DISEASES = 1; // the purposes for which random streams are split off from the master seed
+	public int numStrips = 1; // the number of strips the world is split into, to share the work of each tick among threads (1 to run serially). The run comes out the same either way
+	
 	/////////////// Data Sources ///////////////////////////////////////
 	
 	String dirName = "data/";
+	public String roadCacheDirectory = dirName + "cache/"; // where cleaned road networks are cached, or null not to cache them
+	public static long roadCleanupSeed = 0; // seeds the random number generator used when cleaning the road network
+	public static long homePlacementSeed = 0; // seeds the random number generator used to scatter the homes
+	public static int homesPerArea = 50; // the homes placed around each residential area
+	public static double homeScatter = 100; // the standard deviation of the distance of each home from its area's centroid, in each direction
+	
+	String baseFile = dirName + "haiti/haiti_meters.shp";
+	String populationFile = dirName + "population/popCentroids_meters.shp";
+	String roadFile = dirName + "roads/roads_meters.shp";
+	String waterwayFile = dirName + "waterways/rivers_meters.shp";
+	String medicalFile = dirName + "healthFacilities/health_meters.shp";
 	
 	//// END Data Sources ////////////////////////
 	
@@ -102,18 +143,43 @@ public class ModernPump extends SimState {
 	/////////////// Objects //////////////////////////////////////////////
 
 	public Geometry landArea = null;
+	public LandMask land = null; // fast containment tests against the landArea
 	public Bag roadNodes = new Bag();
 	public Network roads = new Network(false);
 	HashMap <MasonGeometry, ArrayList <GeoNode>> localNodes;
 	public Bag terminus_points = new Bag();
 
 	public ArrayList <HumanTeleporter> humans = new ArrayList <HumanTeleporter> (2000);
+	public Population population = null; // the state of the humans
+	public int maxDisplayedAgents = 0; // the humans with indices below this are drawn in the humanLayer
+	public ContactGrid contactIndex = null;
+	public HomeIndex homeIndex = null;
+	public FacilityIndex medicalIndex = null; // finds the health facilities nearest to a point
+	public TransmissionEngine transmission = null;
+	public IncidenceGrid incidence = null; // the number of cases in each cell, per window of time
+	public RecentCases recentCases = null; // the latest cases, drawn in the diseasesLayer
+	public ArrayList <Disease> diseases = new ArrayList <Disease> (); // the diseases at large in the simulation, by id
+	int numAgentIndices = 0;
+	public AgentCalendar agentSchedule = null; // wakes the agents on their chosen ticks
+	public Strip serialStrip = new Strip(this); // makes the changes of agents stepped serially straight away
+	public StripPartition strips = null; // the strips the world is split into, one or more
+	public Region region = null; // if set, this process simulates only the given region of the world, and the others are simulated elsewhere
 	public Network agentSocialNetwork = new Network();
 	
 	public GeometryFactory fa = new GeometryFactory();
 	
 	long mySeed = 0;
 	
+	public String snapshotFile = null; // if set, the world is restored from (or, failing that, saved to) this snapshot
+	
+	public String eventLogFile = null; // where events are written, or null to print them
+	public int eventLogFormat = EventLog.format_TEXT;
+	public int loggedEvents = EventLog.all & ~EventLog.flag(EventLog.event_STAGE); // the types of event written
+	public EventLog events = null;
+	
+	public String metricsFile = null; // if set, the metrics of every tick are written here when the simulation finishes
+	public TickMetrics metrics = null; // where the time of each tick goes
+	
 	Envelope MBR = null;
 	
 	boolean verbose = false;
@@ -132,7 +198,7 @@ public class ModernPump extends SimState {
 	 */
 	public ModernPump(long seed) {
 		super(seed);
-		random = new MersenneTwisterFast(703356);
+		mySeed = seed;
 	}
 
 
@@ -142,52 +208,42 @@ public class ModernPump extends SimState {
 	public void start()
     {
 		super.start();
-		try {
-			
-			GeomVectorField populationLayer = new GeomVectorField(grid_width, grid_height);
-			
-			//////////////////////////////////////////////
-			///////////// READING IN DATA ////////////////
-			//////////////////////////////////////////////
-		
-			readInVectorLayer(baseLayer, dirName + "haiti/haiti_meters.shp", "area", new Bag());
-			readInVectorLayer(populationLayer, dirName + "population/popCentroids_meters.shp", "residential areas", new Bag());
-			readInVectorLayer(roadLayer, dirName + "roads/roads_meters.shp", "road network", new Bag());
-			readInVectorLayer(waterwayLayer, dirName + "waterways/rivers_meters.shp", "waterways", new Bag());
-			readInVectorLayer(medicalLayer, dirName + "healthFacilities/health_meters.shp", "health facilities", new Bag());
-			
-			//////////////////////////////////////////////
-			////////////////// CLEANUP ///////////////////
-			//////////////////////////////////////////////
 
-			// standardize the MBRs so that the visualization lines up
-			
-			MBR = roadLayer.getMBR();
-//			MBR.init(740000, 780000, 2000000, 2040000); // 35 22  
-			MBR.init(740000, 779000, 2009000, 2034000); // 35 22  
-//			MBR.init(750000, 772000, 2009500, 2028500); // 22 18  
-//			MBR.init(756000, 766000, 2015500, 2022500);
-			roadLayer.setMBR(MBR);
-			//baseLayer.setMBR(MBR);
+		// forget anything left over from an earlier run of this SimState (as when the GUI is stopped
+		// and played again), so that the run starts afresh
+		diseases.clear();
+		humans.clear();
+		numDied = 0;
+		for(GeomVectorField layer: new GeomVectorField [] {baseLayer, homesLayer, roadLayer, waterwayLayer,
+				medicalLayer, humanLayer, networkLayer, networkEdgeLayer, majorRoadNodesLayer})
+			layer.clear();
+		roadNodes = new Bag();
 
-			this.grid_width = roadLayer.fieldWidth;
-			this.grid_height = roadLayer.fieldHeight;
+		try {
+
+			// events are written out by the log's own thread, off the simulation's
+			if(eventLogFile != null)
+				events = new EventLog(eventLogFile, eventLogFormat, loggedEvents, eventLogCapacity);
+			else
+				events = new EventLog(System.out, eventLogFormat, loggedEvents, eventLogCapacity);
 			
-			// base layer
+			GeomVectorField populationLayer = new GeomVectorField(grid_width, grid_height);
 			
-			landArea = (Geometry)((MasonGeometry)baseLayer.getGeometries().get(0)).geometry.clone();
-			for(Object o: baseLayer.getGeometries()){
-				MasonGeometry g = (MasonGeometry) o;
-				landArea = landArea.union(g.geometry);
+			// restore the unchanging parts of the world from a snapshot if there is one, and otherwise build them
+			ArrayList <Coordinate> snapshotHomes = null;
+			if(snapshotFile != null && new File(snapshotFile).exists()){
+				long loadStart = System.currentTimeMillis();
+				try {
+					snapshotHomes = WorldSnapshot.load(this, snapshotFile);
+					System.out.println("Restored the world from " + snapshotFile + " in " 
+							+ (System.currentTimeMillis() - loadStart) + "ms");
+				} catch (IOException e) {
+					System.out.println("Could not restore the world from " + snapshotFile + ": " + e.getMessage());
+				}
 			}
+			if(snapshotHomes == null)
+				buildWorld(populationLayer);
 			
-			// clean up the road network
-			
-			System.out.print("Cleaning the road network...");
-			
-			roads = NetworkUtilities.multipartNetworkCleanup(roadLayer, roadNodes, resolution, fa, random, 0);
-			roadNodes = roads.getAllNodes();
-			testNetworkForIssues(roads);
 			
 /*			// set up roads as being "open" and assemble the list of potential terminii
 			roadLayer = new GeomVectorField(grid_width, grid_height);
@@ -232,6 +288,31 @@ public class ModernPump extends SimState {
 
 			System.out.println("done");
 
+			// the index used to find the nearest health facilities
+			medicalIndex = new FacilityIndex(medicalLayer.getGeometries());
+
+			// the index used to find who is in contact with whom
+			contactIndex = new ContactGrid(MBR, contactRadius);
+			
+			// count the cases as they come in, and show the most recent of them
+			incidence = new IncidenceGrid(MBR, incidenceResolution, incidenceWindow);
+			diseasesLayer.clear();
+			recentCases = new RecentCases(diseasesLayer, maxRecentCases);
+			diseasesLayer.setMBR(MBR);
+
+			// record the work done in each tick, around everything else which happens in it
+			metrics = new TickMetrics(jfrEvents);
+			metrics.schedule(schedule);
+			
+			// spread and progress all infections once per tick, before the agents move (ordering 0)
+			transmission = new TransmissionEngine();
+			schedule.scheduleRepeating(Schedule.EPOCH, 0, transmission, 1);
+
+			// wake the agents on the hours they have chosen, after the infections have spread (ordering 100)
+			agentSchedule = new AgentCalendar(agentScheduleHorizon);
+			agentSchedule.metrics = metrics;
+			schedule.scheduleRepeating(Schedule.EPOCH, 100, agentSchedule, 1);
+
 			/////////////////////
 			///////// Clean up roads for Agents to use ///////////
 			/////////////////////
@@ -266,11 +347,43 @@ public class ModernPump extends SimState {
 			////////////////// AGENTS ///////////////////
 			//////////////////////////////////////////////
 
-			// set up the agents in the simulation
-			setupAgents(populationLayer);
+			// set up the agents in the simulation, each with the id of its home. A region only sets up
+			// the agents living in it
+			ArrayList <Coordinate> homes = snapshotHomes;
+			if(homes == null){
+				homes = placeHomes(populationLayer);
+				if(snapshotFile != null && region == null)
+					WorldSnapshot.save(this, homes, snapshotFile);
+			}
+			numAgentIndices = 0;
+			if(region == null){
+				population = new Population(homes.size(), humanLayer, maxDisplayedAgents, streamSeed(stream_AGENTS));
+				setupAgents(homes);
+			}
+			else {
+				population = new Population(homes.size() / region.getNumRegions(), humanLayer, 0, streamSeed(stream_AGENTS));
+				region.setupAgents(this, homes);
+			}
 			humanLayer.setMBR(MBR);
 			homesLayer.setMBR(MBR);
 			
+			// index the homes, which serve as the places the agents visit. Every region indexes all of
+			// them, as its agents may visit anyone
+			homeIndex = new HomeIndex(homeIndexResolution);
+			for(int i = 0; i < homes.size(); i++)
+				homeIndex.add(i, homes.get(i));
+			homeIndex.build();
+			
+			// once everyone who died in a tick is known, rebuild the home index without them if enough
+			// have died (ordering 190)
+			schedule.scheduleRepeating(Schedule.EPOCH, 190, new Steppable(){
+				private static final long serialVersionUID = 1L;
+				
+				public void step(SimState state){
+					homeIndex.compact();
+				}
+			}, 1);
+			
 /*			// for each of the Agents, set up relevant, environment-specific information
 			int aindex = 0;
 			for(Human a: humans){
@@ -309,8 +422,22 @@ public class ModernPump extends SimState {
 */
 //			Disease d = new Disease();
 			Cholera d = new Cholera();
-			HumanTeleporter h = humans.get(random.nextInt(humans.size()));
-			h.acquireDisease(d);
+			registerDisease(d);
+			int indexCase = random.nextInt(homes.size());
+			if(region == null)
+				humans.get(indexCase).acquireDisease(d);
+			else
+				region.infect(indexCase, d);
+			
+			// split the world into strips to share out the work of each tick. Even a single strip holds
+			// on to its agents' changes until they have all been stepped, so that the run is the same
+			// however many strips there are
+			strips = new StripPartition(this, numStrips);
+			agentSchedule.strips = strips;
+			
+			// exchange agents and contacts with the neighbouring regions as the tick goes on
+			if(region != null)
+				region.schedule(this);
 			
 			// seed the simulation randomly
 //			seedRandom(System.currentTimeMillis());
@@ -321,6 +448,99 @@ public class ModernPump extends SimState {
 		} catch (Exception e) { e.printStackTrace();}
     }
 	
+	/**
+	 * Read in the data layers, then assemble the land area and clean up the road network
+	 */
+	void buildWorld(GeomVectorField populationLayer){
+		
+		//////////////////////////////////////////////
+		///////////// READING IN DATA ////////////////
+		//////////////////////////////////////////////
+		
+		// the layers are independent of one another, so read them all at once and wait for the last
+		// of them before going on
+		long readStart = System.currentTimeMillis();
+		ArrayList <Callable<Object>> readers = new ArrayList <Callable<Object>> ();
+		readers.add(vectorLayerReader(baseLayer, baseFile, "area", new Bag()));
+		readers.add(vectorLayerReader(populationLayer, populationFile, "residential areas", new Bag()));
+		readers.add(vectorLayerReader(roadLayer, roadFile, "road network", new Bag()));
+		readers.add(vectorLayerReader(waterwayLayer, waterwayFile, "waterways", new Bag()));
+		readers.add(vectorLayerReader(medicalLayer, medicalFile, "health facilities", new Bag()));
+		
+		ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, Math.min(numLoaderThreads, readers.size())));
+		try {
+			for(Future <Object> f: loaders.invokeAll(readers))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while reading in the data layers", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("could not read in the data layers", e.getCause());
+		} finally {
+			loaders.shutdown();
+		}
+		System.out.println("Read in all data layers in " + (System.currentTimeMillis() - readStart) + "ms");
+		
+		//////////////////////////////////////////////
+		////////////////// CLEANUP ///////////////////
+		//////////////////////////////////////////////
+
+		// standardize the MBRs so that the visualization lines up
+		
+		MBR = roadLayer.getMBR();
+//			MBR.init(740000, 780000, 2000000, 2040000); // 35 22  
+		MBR.init(740000, 779000, 2009000, 2034000); // 35 22  
+//			MBR.init(750000, 772000, 2009500, 2028500); // 22 18  
+//			MBR.init(756000, 766000, 2015500, 2022500);
+		roadLayer.setMBR(MBR);
+		//baseLayer.setMBR(MBR);
+
+		this.grid_width = roadLayer.fieldWidth;
+		this.grid_height = roadLayer.fieldHeight;
+		
+		// base layer
+		
+		long unionStart = System.currentTimeMillis();
+		ArrayList <Geometry> baseGeometries = new ArrayList <Geometry> ();
+		for(Object o: baseLayer.getGeometries()){
+			MasonGeometry g = (MasonGeometry) o;
+			baseGeometries.add(g.geometry);
+		}
+		landArea = ParallelUnion.union(baseGeometries);
+		System.out.println("Merged " + baseGeometries.size() + " base features into the land area in " 
+				+ (System.currentTimeMillis() - unionStart) + "ms");
+		land = new LandMask(landArea, landMaskResolution);
+		
+		// clean up the road network
+		
+		RoadNetworkCache roadCache = roadCacheDirectory == null ? null : new RoadNetworkCache(roadCacheDirectory);
+		roads = null;
+		try {
+			if(roadCache != null)
+				roads = roadCache.load(roadFile, resolution);
+		} catch (IOException e) {
+			System.out.println("Could not read the cached road network: " + e.getMessage());
+		}
+		
+		if(roads != null)
+			System.out.println("Read the cleaned road network from the cache");
+		else {
+			System.out.print("Cleaning the road network...");
+			
+			// the cleanup gets a random number generator of its own, so that whether or not the network
+			// comes from the cache has no effect on the rest of the run
+			roads = NetworkUtilities.multipartNetworkCleanup(roadLayer, roadNodes, resolution, fa, new MersenneTwisterFast(roadCleanupSeed), 0);
+			try {
+				if(roadCache != null)
+					roadCache.save(roadFile, resolution, roads);
+			} catch (IOException e) {
+				System.out.println("Could not cache the road network: " + e.getMessage());
+			}
+		}
+		roadNodes = roads.getAllNodes();
+		testNetworkForIssues(roads);
+	}
+	
 	/**
 	 * Schedule the regular 
 	 */
@@ -369,7 +589,18 @@ public class ModernPump extends SimState {
 	public void finish(){
 		super.finish();
 		try{
-
+			if(events != null)
+				events.close();
+			events = null;
+			
+			if(strips != null)
+				strips.close();
+			
+			if(metricsFile != null && metrics != null){
+				BufferedWriter w = new BufferedWriter(new FileWriter(metricsFile));
+				metrics.write(w);
+				w.close();
+			}
 		} catch (Exception e){
 			e.printStackTrace();
 		}
@@ -410,21 +641,39 @@ public class ModernPump extends SimState {
 	 * @param layerDescription
 	 * @param attributes - optional: include only the given attributes
 	 */
-	synchronized void readInVectorLayer(GeomVectorField layer, String filename, String layerDescription, Bag attributes){
+	void readInVectorLayer(GeomVectorField layer, String filename, String layerDescription, Bag attributes){
 		try {
-				System.out.print("Reading in " + layerDescription + "from " + filename + "...");
+				long readStart = System.currentTimeMillis();
 				File file = new File(filename);
-				if(attributes == null || attributes.size() == 0)
+				if(mappedShapefiles)
+					MappedShapefileReader.read(filename, layer, attributes);
+				else if(attributes == null || attributes.size() == 0)
 					ShapeFileImporter.read(file.toURL(), layer);
 				else
 					ShapeFileImporter.read(file.toURL(), layer, attributes);
-				System.out.println("done");	
+				
+				// one line per layer, so that the reports of layers read at the same time don't get mixed up
+				System.out.println("Read in " + layerDescription + " from " + filename + " ("
+						+ layer.getGeometries().size() + " features) in " + (System.currentTimeMillis() - readStart) + "ms");
 
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * @return a task which reads in the given vector layer, to be run alongside the others
+	 */
+	Callable <Object> vectorLayerReader(final GeomVectorField layer, final String filename, 
+			final String layerDescription, final Bag attributes){
+		return new Callable <Object> (){
+			public Object call(){
+				readInVectorLayer(layer, filename, layerDescription, attributes);
+				return null;
+			}
+		};
+	}
+	
 	/**
 	 * Method ot read in a raster layer
 	 * @param layer
@@ -602,29 +851,109 @@ public class ModernPump extends SimState {
 		mySeed = number;
 	}
 	
+	/** @return a new agent id */
+	public int nextAgentIndex(){ return numAgentIndices++; }
+	
+	/**
+	 * Count a new case at the given position, and show it on the map
+	 */
+	public void recordCase(double x, double y){
+		long tick = currentTick();
+		incidence.record(x, y, tick);
+		recentCases.add(x, y, tick);
+		metrics.infections++;
+	}
+	
+	/**
+	 * Record an event involving the given agent in the event log
+	 */
+	public void logEvent(int type, int agent, int value, double x, double y){
+		events.log(type, currentTick(), agent, value, x, y);
+	}
+	
+	/** @return the current tick, with anything before the first tick counted in it */
+	public long currentTick(){
+		return Math.max(0, (long) schedule.getTime());
+	}
+	
+	/**
+	 * Add a disease to the simulation, giving it the next free disease id
+	 */
+	public void registerDisease(Disease d){
+		d.setId(diseases.size());
+		d.setSeed(SplitMix.split(streamSeed(stream_DISEASES), d.getId()));
+		diseases.add(d);
+	}
+	
+	/**
+	 * @return the seed of the random streams used for the given purpose, split off from the master
+	 * seed (see SplitMix)
+	 */
+	public long streamSeed(int purpose){
+		return SplitMix.split(seed(), purpose);
+	}
+	
+	/** @return the disease registered with the given id */
+	public Disease getDisease(int id){
+		return diseases.get(id);
+	}
+	
+	/** @return the disease with the given name, or null if there is none */
+	public Disease getDisease(String name){
+		for(Disease d: diseases)
+			if(d.getName().equals(name))
+				return d;
+		return null;
+	}
+	
 	public void setupAgents(GeomVectorField populationLayer){
+		setupAgents(placeHomes(populationLayer));
+	}
+	
+	/** @return the shapefiles the world is built from */
+	public String [] dataFiles(){
+		return new String [] {baseFile, populationFile, roadFile, waterwayFile, medicalFile};
+	}
+	
+	/**
+	 * @return homes scattered around the centroids of the residential areas, homesPerArea to an area,
+	 * less those which fall in the water. The homes are drawn from a random number generator of their
+	 * own, so that the rest of the run is the same whether they are placed here or restored from a
+	 * snapshot
+	 */
+	ArrayList <Coordinate> placeHomes(GeomVectorField populationLayer){
+		ArrayList <Coordinate> homes = new ArrayList <Coordinate> (homesPerArea * populationLayer.getGeometries().size());
 		Bag nodeBag = majorRoadNodesLayer.getGeometries();
+		MersenneTwisterFast random = new MersenneTwisterFast(homePlacementSeed);
 		
 		int numNodes = nodeBag.size();
 		for (Object o : populationLayer.getGeometries()) {
 			MasonGeometry g = (MasonGeometry) o;
 			Coordinate c = g.geometry.getCoordinate();
-			for (int i = 0; i < 50; i++) {
+			for (int i = 0; i < homesPerArea; i++) {
 //				GeoNode gn = (GeoNode) nodeBag.get(random.nextInt(numNodes));
 //				Coordinate myHome = (Coordinate) gn.geometry.getCoordinate().clone();
 //				double distance = Math.abs(random.nextGaussian()) * 1500;
 //				double degrees = random.nextDouble() * 2 * Math.PI;
 //				double xOffset = distance * Math.cos(degrees) + c.x;
-				double xOffset = random.nextGaussian() * 100 + c.x;
+				double xOffset = random.nextGaussian() * homeScatter + c.x;
 //				double yOffset = distance * Math.sin(degrees) + c.y;
-				double yOffset = random.nextGaussian() * 100 + c.y;
+				double yOffset = random.nextGaussian() * homeScatter + c.y;
 				Coordinate myHome = new Coordinate(xOffset, yOffset);
-				Geometry point = fa.createPoint(myHome);
-				if(!landArea.contains(point)) continue;
-				HumanTeleporter hum = new HumanTeleporter("id_" + random.nextLong(), myHome, myHome, this);
-				humans.add(hum);
+				if(!land.contains(myHome)) continue;
+				homes.add(myHome);
 			}
 		}
+		return homes;
+	}
+	
+	/**
+	 * Create agents living in the given homes
+	 */
+	public void setupAgents(ArrayList <Coordinate> homes){
+		for(Coordinate myHome: homes){
+			new HumanTeleporter(myHome, myHome, this);
+		}
 	}
 	
 	// reset the agent layer's MBR
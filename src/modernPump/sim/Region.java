@@ -0,0 +1,424 @@
+package modernPump.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import modernPump.agents.HumanTeleporter;
+import modernPump.agents.RemoteHuman;
+import modernPump.agents.diseases.Disease;
+import modernPump.agents.diseases.EpidemicState;
+import modernPump.objects.ContactGrid;
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Bag;
+import sim.util.DoubleBag;
+import sim.util.IntBag;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * One of the regions into which a world too big for one process is split, each simulated by a
+ * process of its own (see RegionHub). The regions are horizontal bands of whole rows of the
+ * contact index, chosen, as the strips of a StripPartition are, to hold about equal shares of the
+ * homes. Each process sets up only the agents living in its region, and holds only their state;
+ * the unchanging parts of the world, and the index of everyone's homes which agents draw places
+ * to visit from, are held by every process.
+ *
+ * The regions keep in step with one another through three exchanges a tick, each passing a
+ * message from every region to every other by way of the hub:
+ *
+ * 		- before the infections spread (ordering -1), the agents within haloDistance of each border
+ * 		are sent across it, and stand in for themselves in the contact index of the neighbouring
+ * 		region as RemoteHumans
+ * 		- once the infections have spread (ordering 50), the infections of RemoteHumans are sent to
+ * 		the regions their Humans live in, before anyone moves
+ * 		- once the agents have moved (ordering 150), those who have died are sent to everyone, to
+ * 		be taken out of their home indices, and those who have moved into another region are sent
+ * 		there with their state, their infections and their wakeups
+ *
+ * As every agent and disease draws from random streams of its own, keyed by the agents' ids, a run
+ * split into regions comes out the same as a serial run with the same seed and world. The halo
+ * must be at least as wide as the furthest any disease transmits for this to hold.
+ *
+ * @author swise
+ *
+ */
+public class Region implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static double haloDistance = ModernPump.contactRadius; // how far across its borders a region sees: at least the furthest any disease transmits
+	
+	int id, numRegions;
+	transient DataInputStream in; // from the hub
+	transient DataOutputStream out; // to the hub
+	
+	ModernPump world;
+	int [] firstRows; // the first row of the contact index in each region, followed by the number of rows
+	int reach; // the number of rows on either side of each border which are seen across it
+	HumanTeleporter [] residents; // the agents living in the region, by id
+	
+	Bag ghosts = new Bag(); // the agents of other regions standing in the contact index
+	IntBag deadIds = new IntBag(); // the agents who have died in the region in this tick...
+	DoubleBag deadXs = new DoubleBag(), deadYs = new DoubleBag(); // ...and their homes
+	
+	// the messages being written to each region
+	transient ByteArrayOutputStream [] buffers;
+	transient DataOutputStream [] outgoing;
+	
+	public long messageBytes = 0; // the size of the messages sent so far
+	public int numMigrants = 0; // the agents who have left for other regions so far
+	
+	/**
+	 * @param id - the number of the region, counting from the south
+	 * @param numRegions - the number of regions the world is split into
+	 * @param in - the messages from the other regions, by way of the hub
+	 * @param out - the messages to the other regions
+	 */
+	public Region(int id, int numRegions, DataInputStream in, DataOutputStream out){
+		this.id = id;
+		this.numRegions = numRegions;
+		this.in = in;
+		this.out = out;
+		buffers = new ByteArrayOutputStream [numRegions];
+		outgoing = new DataOutputStream [numRegions];
+		for(int q = 0; q < numRegions; q++){
+			buffers[q] = new ByteArrayOutputStream();
+			outgoing[q] = new DataOutputStream(buffers[q]);
+		}
+	}
+	
+	public int getId(){ return id; }
+	
+	public int getNumRegions(){ return numRegions; }
+	
+	/**
+	 * Split the world among the regions, and set up the agents living in this one. Each agent is
+	 * given the position of its home in the list as its id, as in a serial run
+	 */
+	void setupAgents(ModernPump world, ArrayList <Coordinate> homes){
+		this.world = world;
+		ContactGrid grid = world.contactIndex;
+		if(numRegions > grid.getHeight())
+			throw new IllegalArgumentException("the world has only " + grid.getHeight() + " rows to split among " + numRegions + " regions");
+		
+		int [] homesInRow = new int [grid.getHeight()];
+		for(Coordinate c: homes)
+			homesInRow[grid.rowOf(c.y)]++;
+		firstRows = StripPartition.balance(homesInRow, numRegions);
+		reach = (int) Math.ceil(haloDistance / grid.getCellSize());
+		
+		residents = new HumanTeleporter [homes.size()];
+		for(int i = 0; i < homes.size(); i++){
+			Coordinate c = homes.get(i);
+			if(regionOf(c.y) == id)
+				residents[i] = new HumanTeleporter(i, c, c, world);
+		}
+	}
+	
+	/**
+	 * Schedule the exchanges with the other regions
+	 */
+	void schedule(ModernPump world){
+		world.schedule.scheduleRepeating(Schedule.EPOCH, -1, new Exchange(){
+			private static final long serialVersionUID = 1L;
+			void exchange() throws IOException { exchangeHalo(); }
+		}, 1);
+		world.schedule.scheduleRepeating(Schedule.EPOCH, 50, new Exchange(){
+			private static final long serialVersionUID = 1L;
+			void exchange() throws IOException { exchangeInfections(); }
+		}, 1);
+		world.schedule.scheduleRepeating(Schedule.EPOCH, 150, new Exchange(){
+			private static final long serialVersionUID = 1L;
+			void exchange() throws IOException { exchangeMigrants(); }
+		}, 1);
+		world.schedule.scheduleRepeating(Schedule.EPOCH, 200, new Exchange(){
+			private static final long serialVersionUID = 1L;
+			void exchange() throws IOException { report(); }
+		}, 1);
+	}
+	
+	abstract class Exchange implements Steppable {
+		private static final long serialVersionUID = 1L;
+		
+		abstract void exchange() throws IOException;
+		
+		public void step(SimState state){
+			try {
+				exchange();
+			} catch (IOException e) {
+				throw new RuntimeException("region " + id + " lost touch with the other regions", e);
+			}
+		}
+	}
+	
+	/** @return the region holding the given y position */
+	public int regionOf(double y){
+		return StripPartition.runOfRow(firstRows, world.contactIndex.rowOf(y));
+	}
+	
+	/**
+	 * Infect the agent with the given id, if it lives in this region
+	 */
+	void infect(int agent, Disease d){
+		if(residents[agent] != null)
+			residents[agent].acquireDisease(d);
+	}
+	
+	/**
+	 * Pass the infection of a RemoteHuman on to the region its Human lives in
+	 */
+	public void infectRemote(RemoteHuman h, Disease d){
+		try {
+			outgoing[h.getOwner()].writeInt(h.getId());
+			outgoing[h.getOwner()].writeInt(d.getId());
+		} catch (IOException e) { // a ByteArrayOutputStream never throws
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Record the death of one of the region's agents, to be passed on to the others
+	 */
+	public void died(HumanTeleporter h){
+		residents[h.getId()] = null;
+		Coordinate home = h.getHome();
+		deadIds.add(h.getId());
+		deadXs.add(home.x);
+		deadYs.add(home.y);
+	}
+	
+	/**
+	 * Send each region the message written for it, and read in those written for this one
+	 *
+	 * @return the messages from each region, by region (that from this one being empty)
+	 */
+	DataInputStream [] exchange() throws IOException {
+		out.writeByte(RegionHub.message_EXCHANGE);
+		for(int q = 0; q < numRegions; q++){
+			outgoing[q].flush();
+			out.writeInt(buffers[q].size());
+			buffers[q].writeTo(out);
+			messageBytes += buffers[q].size();
+			buffers[q].reset();
+		}
+		out.flush();
+		
+		RegionHub.expect(in, RegionHub.message_EXCHANGE, "the hub");
+		DataInputStream [] incoming = new DataInputStream [numRegions];
+		for(int q = 0; q < numRegions; q++){
+			byte [] message = new byte [in.readInt()];
+			in.readFully(message);
+			incoming[q] = new DataInputStream(new ByteArrayInputStream(message));
+		}
+		return incoming;
+	}
+	
+	/**
+	 * Send the agents near each border to the region across it, and put those sent to this region
+	 * into the contact index in place of the last tick's
+	 */
+	void exchangeHalo() throws IOException {
+		ContactGrid grid = world.contactIndex;
+		for(int i = 0; i < ghosts.numObjs; i++)
+			grid.remove((RemoteHuman) ghosts.objs[i]);
+		ghosts.clear();
+		
+		int first = firstRows[id], last = firstRows[id + 1];
+		for(HumanTeleporter h: world.humans){
+			int row = grid.rowOf(h.getY());
+			if(row >= first + reach && row < last - reach)
+				continue;
+			
+			long diseasesHad = 0;
+			for(Disease d: world.diseases)
+				if(h.infectedWith(d.getId()))
+					diseasesHad |= 1L << d.getId();
+			for(int q = 0; q < numRegions; q++){
+				if(q == id || row < firstRows[q] - reach || row >= firstRows[q + 1] + reach)
+					continue;
+				outgoing[q].writeInt(h.getId());
+				outgoing[q].writeDouble(h.getX());
+				outgoing[q].writeDouble(h.getY());
+				outgoing[q].writeLong(diseasesHad);
+			}
+		}
+		for(int q = 0; q < numRegions; q++)
+			outgoing[q].writeInt(-1);
+		
+		DataInputStream [] incoming = exchange();
+		for(int q = 0; q < numRegions; q++){
+			if(q == id) continue;
+			for(int agent = incoming[q].readInt(); agent >= 0; agent = incoming[q].readInt()){
+				RemoteHuman g = new RemoteHuman(this, q, agent, incoming[q].readDouble(), incoming[q].readDouble(), incoming[q].readLong());
+				grid.add(g, new Coordinate(g.getX(), g.getY()));
+				ghosts.add(g);
+			}
+		}
+	}
+	
+	/**
+	 * Send the infections of RemoteHumans to the regions their Humans live in, and infect those of
+	 * the region's agents infected elsewhere who haven't had the disease already
+	 */
+	void exchangeInfections() throws IOException {
+		for(int q = 0; q < numRegions; q++)
+			outgoing[q].writeInt(-1);
+		
+		DataInputStream [] incoming = exchange();
+		for(int q = 0; q < numRegions; q++){
+			if(q == id) continue;
+			for(int agent = incoming[q].readInt(); agent >= 0; agent = incoming[q].readInt()){
+				int disease = incoming[q].readInt();
+				HumanTeleporter h = residents[agent];
+				if(h == null)
+					throw new IllegalStateException("region " + q + " infected id_" + agent + ", who doesn't live in region " + id);
+				if(!h.infectedWith(disease))
+					h.acquireDisease(world.getDisease(disease));
+			}
+		}
+	}
+	
+	/**
+	 * Tell every region who has died in this one, and send the agents who have moved into other
+	 * regions there, taking them out of this one. Then take the agents who have died elsewhere out
+	 * of the home index, and set up the agents who have moved into this region
+	 */
+	void exchangeMigrants() throws IOException {
+		
+		for(int q = 0; q < numRegions; q++){
+			if(q == id) continue;
+			outgoing[q].writeInt(deadIds.numObjs);
+			for(int i = 0; i < deadIds.numObjs; i++){
+				outgoing[q].writeInt(deadIds.objs[i]);
+				outgoing[q].writeDouble(deadXs.objs[i]);
+				outgoing[q].writeDouble(deadYs.objs[i]);
+			}
+		}
+		deadIds.clear();
+		deadXs.clear();
+		deadYs.clear();
+		
+		// find those who have left the region
+		Bag leaving = new Bag();
+		IntBag destinations = new IntBag(), indices = new IntBag();
+		int [] numLeaving = new int [numRegions];
+		for(HumanTeleporter h: world.humans){
+			int q = regionOf(h.getY());
+			if(q == id) continue;
+			leaving.add(h);
+			destinations.add(q);
+			indices.add(h.getIndex());
+			numLeaving[q]++;
+		}
+		
+		// send them on, with their wakeups, and take them out of the region
+		for(int q = 0; q < numRegions; q++)
+			if(q != id)
+				outgoing[q].writeInt(numLeaving[q]);
+		if(leaving.numObjs > 0){
+			IntBag [] wakeups = world.agentSchedule.extract(leaving);
+			for(int i = 0; i < leaving.numObjs; i++){
+				HumanTeleporter h = (HumanTeleporter) leaving.objs[i];
+				DataOutputStream o = outgoing[destinations.objs[i]];
+				h.write(o);
+				o.writeInt(wakeups[i].numObjs);
+				for(int j = 0; j < wakeups[i].numObjs; j++)
+					o.writeInt(wakeups[i].objs[j]);
+			}
+			for(Disease d: world.diseases)
+				d.state.release(indices);
+			for(int i = 0; i < leaving.numObjs; i++){
+				HumanTeleporter h = (HumanTeleporter) leaving.objs[i];
+				h.depart();
+				residents[h.getId()] = null;
+			}
+			numMigrants += leaving.numObjs;
+		}
+		
+		DataInputStream [] incoming = exchange();
+		for(int q = 0; q < numRegions; q++){
+			if(q == id) continue;
+			DataInputStream message = incoming[q];
+			for(int n = message.readInt(); n > 0; n--)
+				world.homeIndex.remove(message.readInt(), new Coordinate(message.readDouble(), message.readDouble()));
+			for(int n = message.readInt(); n > 0; n--){
+				HumanTeleporter h = HumanTeleporter.read(message, world);
+				residents[h.getId()] = h;
+				for(int k = message.readInt(); k > 0; k--)
+					world.agentSchedule.scheduleOnce(message.readInt(), h);
+			}
+		}
+	}
+	
+	/**
+	 * Send the hub the region's S/I/R counts for each disease, at the end of the tick
+	 */
+	void report() throws IOException {
+		out.writeByte(RegionHub.message_REPORT);
+		out.writeInt(world.diseases.size());
+		for(Disease d: world.diseases){
+			EpidemicState s = d.state;
+			out.writeInt(s.getNumSusceptible(world.humans.size() + world.numDied));
+			out.writeInt(s.getNumInfected());
+			out.writeInt(s.getNumRecovered());
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Run one region of a world split among processes, as told to by the hub listening on the
+	 * given host and port:
+	 *
+	 * 		Region host port
+	 */
+	public static void main(String [] args) throws IOException {
+		
+		Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		
+		// the hub says which region this is and how the run is set up
+		int id = in.readInt(), numRegions = in.readInt();
+		ModernPump world = new ModernPump(in.readLong());
+		int ticks = in.readInt();
+		world.snapshotFile = RegionHub.readString(in);
+		world.eventLogFile = RegionHub.readString(in);
+		world.eventLogFormat = in.readInt();
+		world.loggedEvents = in.readInt();
+		world.numStrips = in.readInt();
+		if(world.eventLogFile != null)
+			world.eventLogFile += "." + id;
+		
+		world.region = new Region(id, numRegions, in, out);
+		world.start();
+		if(world.strips == null)
+			throw new IllegalStateException("region " + id + " could not be set up");
+		System.out.println("Region " + id + " of " + numRegions + " has " + world.humans.size() + " agents");
+		
+		out.writeByte(RegionHub.message_READY);
+		out.writeInt(world.diseases.size());
+		for(Disease d: world.diseases)
+			out.writeUTF(d.getName());
+		out.flush();
+		
+		for(int i = 0; i < ticks; i++)
+			world.schedule.step(world);
+		world.finish();
+		
+		out.writeByte(RegionHub.message_FINISHED);
+		out.flush();
+		socket.close();
+		System.exit(0);
+	}
+}
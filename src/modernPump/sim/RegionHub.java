@@ -0,0 +1,227 @@
+package modernPump.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs a simulation split into regions, each simulated by a process of its own (see Region), so
+ * that no one process has to hold the whole population. The hub starts the processes on this
+ * machine, each running Region.main(), and they connect back to it over local TCP. It passes the
+ * messages the regions exchange each tick on to where they are going, which keeps the regions in
+ * step with one another, and adds up the S/I/R counts each reports at the end of every tick:
+ *
+ * 		RegionHub regions ticks [seed] [snapshotFile] [eventLogFile]
+ *
+ * Each region writes its events to eventLogFile followed by its number; with no eventLogFile, no
+ * events are logged. The regions are started with the same JVM options as the hub, unless
+ * workerOptions is set.
+ *
+ * @author swise
+ *
+ */
+public class RegionHub {
+	
+	public static final byte message_EXCHANGE = 1, message_REPORT = 2, message_READY = 3, message_FINISHED = 4;
+	
+	public static String workerOptions = null; // the JVM options of the region processes, separated by spaces, or null to use those of the hub
+	public static int connectTimeout = 600000; // how long to wait for the regions to connect and set themselves up, in ms
+	
+	int numRegions;
+	public long seed;
+	public int ticks;
+	public String snapshotFile = null; // the world, or null to build it from the data in each region
+	public String eventLogFile = null; // where the regions write their events, each to this followed by its number, or null not to log any
+	public int eventLogFormat = EventLog.format_TEXT;
+	public int loggedEvents = EventLog.all & ~EventLog.flag(EventLog.event_STAGE);
+	public int numStrips = 1; // the strips each region is split into
+	
+	public ArrayList <String> diseases = null; // the diseases simulated, by id
+	public int [][][] sir; // the total S/I/R counts, [disease][tick][S, I, R]
+	
+	Process [] processes;
+	Socket [] sockets;
+	DataInputStream [] ins;
+	DataOutputStream [] outs;
+	
+	public RegionHub(int numRegions, long seed, int ticks){
+		this.numRegions = numRegions;
+		this.seed = seed;
+		this.ticks = ticks;
+	}
+	
+	/**
+	 * Start the regions, run them for the given number of ticks and wait for them to finish
+	 */
+	public void run() throws IOException {
+		processes = new Process [numRegions];
+		sockets = new Socket [numRegions];
+		ins = new DataInputStream [numRegions];
+		outs = new DataOutputStream [numRegions];
+		ServerSocket server = new ServerSocket(0, numRegions, InetAddress.getLoopbackAddress());
+		try {
+			server.setSoTimeout(connectTimeout);
+			for(int r = 0; r < numRegions; r++)
+				processes[r] = launch(server.getLocalPort());
+			
+			// the regions are numbered in the order in which they connect
+			for(int r = 0; r < numRegions; r++){
+				sockets[r] = server.accept();
+				sockets[r].setTcpNoDelay(true);
+				ins[r] = new DataInputStream(new BufferedInputStream(sockets[r].getInputStream()));
+				outs[r] = new DataOutputStream(new BufferedOutputStream(sockets[r].getOutputStream()));
+				configure(r);
+			}
+			
+			for(int r = 0; r < numRegions; r++){
+				expect(ins[r], message_READY, "region " + r);
+				ArrayList <String> names = new ArrayList <String> ();
+				for(int d = ins[r].readInt(); d > 0; d--)
+					names.add(ins[r].readUTF());
+				if(diseases == null)
+					diseases = names;
+				else if(!diseases.equals(names))
+					throw new IOException("region " + r + " has the diseases " + names + ", not " + diseases);
+			}
+			sir = new int [diseases.size()][ticks][3];
+			
+			long start = System.currentTimeMillis();
+			for(int t = 0; t < ticks; t++){
+				for(int exchange = 0; exchange < 3; exchange++) // the halo, the infections and the migrants
+					route();
+				for(int r = 0; r < numRegions; r++){
+					expect(ins[r], message_REPORT, "region " + r);
+					ins[r].readInt();
+					for(int d = 0; d < diseases.size(); d++)
+						for(int k = 0; k < 3; k++)
+							sir[d][t][k] += ins[r].readInt();
+				}
+			}
+			for(int r = 0; r < numRegions; r++)
+				expect(ins[r], message_FINISHED, "region " + r);
+			for(Process p: processes)
+				p.waitFor();
+			System.out.println("Ran " + ticks + " ticks in " + numRegions + " regions in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the regions", e);
+		} finally {
+			server.close();
+			for(Socket s: sockets)
+				if(s != null)
+					s.close();
+			for(Process p: processes)
+				if(p != null)
+					p.destroy();
+		}
+	}
+	
+	/**
+	 * Start a region's process, to connect back to the given port
+	 */
+	Process launch(int port) throws IOException {
+		ArrayList <String> command = new ArrayList <String> ();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if(workerOptions != null)
+			command.addAll(Arrays.asList(workerOptions.trim().split("\\s+")));
+		else
+			for(String option: ManagementFactory.getRuntimeMXBean().getInputArguments())
+				if(option.startsWith("-X") || option.startsWith("-D"))
+					command.add(option);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Region.class.getName());
+		command.add(InetAddress.getLoopbackAddress().getHostAddress());
+		command.add("" + port);
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+	
+	/**
+	 * Tell the region which it is and how the run is set up
+	 */
+	void configure(int r) throws IOException {
+		DataOutputStream out = outs[r];
+		out.writeInt(r);
+		out.writeInt(numRegions);
+		out.writeLong(seed);
+		out.writeInt(ticks);
+		writeString(out, snapshotFile);
+		writeString(out, eventLogFile);
+		out.writeInt(eventLogFormat);
+		out.writeInt(eventLogFile == null ? 0 : loggedEvents);
+		out.writeInt(numStrips);
+		out.flush();
+	}
+	
+	/**
+	 * Take one message from every region to every other, and pass each on to where it is going.
+	 * Every region sends all of its messages before reading any, so they can be taken from each
+	 * region in turn without anyone waiting on anyone else
+	 */
+	void route() throws IOException {
+		byte [][][] messages = new byte [numRegions][numRegions][]; // [from][to]
+		for(int p = 0; p < numRegions; p++){
+			expect(ins[p], message_EXCHANGE, "region " + p);
+			for(int q = 0; q < numRegions; q++){
+				messages[p][q] = new byte [ins[p].readInt()];
+				ins[p].readFully(messages[p][q]);
+			}
+		}
+		for(int q = 0; q < numRegions; q++){
+			outs[q].writeByte(message_EXCHANGE);
+			for(int p = 0; p < numRegions; p++){
+				outs[q].writeInt(messages[p][q].length);
+				outs[q].write(messages[p][q]);
+			}
+			outs[q].flush();
+		}
+	}
+	
+	/**
+	 * Read the type of the next message, failing if it isn't the one expected
+	 */
+	static void expect(DataInputStream in, byte type, String from) throws IOException {
+		byte got = in.readByte();
+		if(got != type)
+			throw new IOException(from + " sent a message of type " + got + " where one of type " + type + " was expected");
+	}
+	
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if(s != null)
+			out.writeUTF(s);
+	}
+	
+	static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	public static void main(String [] args) throws Exception {
+		
+		if(args.length < 2){
+			System.out.println("usage: RegionHub regions ticks [seed] [snapshotFile] [eventLogFile]");
+			System.exit(0);
+		}
+		
+		RegionHub hub = new RegionHub(Integer.parseInt(args[0]), args.length > 2 ? Long.parseLong(args[2]) : 703356, Integer.parseInt(args[1]));
+		hub.snapshotFile = args.length > 3 && !args[3].equals("-") ? args[3] : null;
+		hub.eventLogFile = args.length > 4 ? args[4] : null;
+		hub.run();
+		
+		for(int d = 0; d < hub.diseases.size(); d++){
+			System.out.println("tick\t" + hub.diseases.get(d) + "\tS\tI\tR");
+			for(int t = 0; t < hub.ticks; t++)
+				System.out.println(t + "\t\t" + hub.sir[d][t][0] + "\t" + hub.sir[d][t][1] + "\t" + hub.sir[d][t][2]);
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,117 @@
+package modernPump.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import sim.field.network.Network;
+
+/**
+ * Keeps cleaned road networks on disk, so that the cleanup of a road shapefile only ever has to be
+ * run once for a given resolution. Each cached network is keyed by a hash of the contents of the
+ * shapefile (.shp, .shx and .dbf) together with the resolution used to clean it: if either changes,
+ * the old entry no longer matches and is replaced the next time the network is cleaned.
+ *
+ * @author swise
+ *
+ */
+public class RoadNetworkCache {
+	
+	static final int magic = 0x4d50524e; // "MPRN"
+	static final int version = 1;
+	
+	String directory;
+	
+	public RoadNetworkCache(String directory){
+		this.directory = directory;
+	}
+	
+	/**
+	 * @return the key under which the network cleaned from the given shapefile at the given resolution is stored
+	 */
+	public static String key(String shapefile, double resolution) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		
+		String base = shapefile.substring(0, shapefile.length() - ".shp".length());
+		byte [] buffer = new byte [1 << 16];
+		for(String extension: new String [] {".shp", ".shx", ".dbf"}){
+			File f = new File(base + extension);
+			if(!f.exists()) continue;
+			InputStream in = new FileInputStream(f);
+			try {
+				for(int n = in.read(buffer); n >= 0; n = in.read(buffer))
+					digest.update(buffer, 0, n);
+			} finally {
+				in.close();
+			}
+		}
+		
+		StringBuilder key = new StringBuilder();
+		for(byte b: digest.digest())
+			key.append(String.format("%02x", b));
+		return key.append("@").append(resolution).toString();
+	}
+	
+	// the cache entry for the shapefile: one per shapefile, so that a new key replaces the old one
+	File entryFor(String shapefile){
+		String name = new File(shapefile).getName();
+		return new File(directory, name.substring(0, name.length() - ".shp".length()) + ".network");
+	}
+	
+	/**
+	 * @return the cleaned network, or null if there is no up-to-date cached version
+	 */
+	public Network load(String shapefile, double resolution) throws IOException {
+		
+		File entry = entryFor(shapefile);
+		if(!entry.exists())
+			return null;
+		
+		ByteBuffer buffer = WorldSnapshot.map(entry.getPath());
+		if(buffer.getInt() != magic || buffer.getInt() != version)
+			return null;
+		
+		WorldSnapshot.Reader r = new WorldSnapshot.Reader(buffer);
+		if(!r.readString().equals(key(shapefile, resolution)))
+			return null; // the shapefile or the resolution has changed
+		
+		return r.readNetwork();
+	}
+	
+	/**
+	 * Store the network cleaned from the shapefile, replacing any older version
+	 */
+	public void save(String shapefile, double resolution, Network network) throws IOException {
+		
+		new File(directory).mkdirs();
+		
+		// write to a temporary file first, so that no-one ever reads a half-written entry
+		File entry = entryFor(shapefile), temp = File.createTempFile(entry.getName(), ".tmp", new File(directory));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			WorldSnapshot.Writer w = new WorldSnapshot.Writer(out);
+			out.writeInt(magic);
+			out.writeInt(version);
+			w.writeString(key(shapefile, resolution));
+			w.writeNetwork(network);
+		} finally {
+			out.close();
+		}
+		
+		entry.delete();
+		if(!temp.renameTo(entry))
+			throw new IOException("could not move " + temp + " to " + entry);
+	}
+}
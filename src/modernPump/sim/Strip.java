@@ -0,0 +1,191 @@
+package modernPump.sim;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+
+import modernPump.agents.HumanTeleporter;
+import modernPump.objects.ContactGrid;
+import modernPump.objects.FacilityIndex;
+import modernPump.objects.HomeIndex;
+import modernPump.objects.SplitMix;
+import sim.engine.Steppable;
+import sim.util.Bag;
+import sim.util.DoubleBag;
+import sim.util.IntBag;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A strip of the world, as seen by the agents stepped in it. Whatever an agent's step does beyond
+ * changing its own state goes through the Strip: choosing a home to visit, finding a health
+ * facility, scheduling its next wakeup, logging events, moving in the contact index and leaving
+ * the simulation. The Strip also holds the generator through which the agent being stepped draws
+ * from its own random stream.
+ *
+ * The world's serial Strip passes all of these straight through to the world. The Strips of a
+ * StripPartition are stepped at the same time on different threads, so each has scratch space of
+ * its own, and holds on to the changes its agents make to the shared parts of the world until the
+ * partition commits them, once every strip has been stepped.
+ *
+ * @author swise
+ *
+ */
+public class Strip implements Callable <Object>, Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** Agents which can be stepped in a Strip */
+	public interface Agent extends Steppable {
+		public void step(Strip strip);
+		public double getY();
+	}
+	
+	ModernPump world;
+	boolean deferred; // whether changes are held until they are committed, rather than made at once
+	SplitMix random = new SplitMix(0); // picks up the random stream of whichever agent is being stepped
+	HomeIndex.Sampler sampler = new HomeIndex.Sampler();
+	FacilityIndex.Query facilityQuery = new FacilityIndex.Query();
+	
+	Bag agents = new Bag(); // the agents to be stepped in the strip
+	
+	// the changes waiting to be committed, in the order in which they were made
+	Bag movers = new Bag();
+	DoubleBag moveXs = new DoubleBag(), moveYs = new DoubleBag();
+	Bag leavers = new Bag();
+	Bag wakers = new Bag();
+	DoubleBag wakeTimes = new DoubleBag();
+	IntBag eventTypes = new IntBag(), eventAgents = new IntBag(), eventValues = new IntBag();
+	DoubleBag eventXs = new DoubleBag(), eventYs = new DoubleBag();
+	long numStepped = 0; // the agents stepped in the strip since it was last committed
+	
+	/**
+	 * A Strip which makes every change at once, for stepping agents serially
+	 */
+	public Strip(ModernPump world){
+		this(world, false);
+	}
+	
+	/**
+	 * @param deferred - whether the Strip holds on to its changes until they are committed
+	 */
+	public Strip(ModernPump world, boolean deferred){
+		this.world = world;
+		this.deferred = deferred;
+	}
+	
+	/**
+	 * @return the generator through which the agent being stepped draws random numbers. The agent
+	 * sets it to the state of its own stream before drawing, and saves its state afterwards
+	 */
+	public SplitMix random(){
+		return random;
+	}
+	
+	/** @return the position in the world's HomeIndex of a home drawn from those within the given band of distances (see HomeIndex.sample) */
+	public int sampleHome(Coordinate c, double minDist, double maxDist){
+		return world.homeIndex.sample(c, minDist, maxDist, random(), sampler);
+	}
+	
+	/** @return the health facility nearest to the given point, or null if there are none within maxDist */
+	public MasonGeometry nearestFacility(Coordinate c, double maxDist){
+		return world.medicalIndex.nearest(c, maxDist, facilityQuery);
+	}
+	
+	/** @return the distance from the given point to the nearest health facility */
+	public double distanceToNearestFacility(Coordinate c){
+		return world.medicalIndex.distanceToNearest(c, facilityQuery);
+	}
+	
+	/** Wake the agent at the given time */
+	public void scheduleOnce(double time, Steppable agent){
+		if(!deferred)
+			world.agentSchedule.scheduleOnce(time, agent);
+		else {
+			wakers.add(agent);
+			wakeTimes.add(time);
+		}
+	}
+	
+	/** Count an agent as stepped: one which has been woken and acted, rather than finding it had nothing to do */
+	public void countStep(){
+		if(!deferred){
+			if(world.metrics != null)
+				world.metrics.agentSteps++;
+		}
+		else
+			numStepped++;
+	}
+	
+	/** Record an event in the event log */
+	public void logEvent(int type, int agent, int value, double x, double y){
+		if(!deferred)
+			world.logEvent(type, agent, value, x, y);
+		else {
+			eventTypes.add(type);
+			eventAgents.add(agent);
+			eventValues.add(value);
+			eventXs.add(x);
+			eventYs.add(y);
+		}
+	}
+	
+	/** Move the resident to its new position in the contact index */
+	public void moved(ContactGrid.Resident resident, double x, double y){
+		if(!deferred)
+			world.contactIndex.move(resident, x, y);
+		else {
+			movers.add(resident);
+			moveXs.add(x);
+			moveYs.add(y);
+		}
+	}
+	
+	/** Take the Human out of the simulation */
+	public void remove(HumanTeleporter h){
+		if(!deferred)
+			h.removeMe();
+		else
+			leavers.add(h);
+	}
+	
+	/**
+	 * Step every agent assigned to the strip, in the order in which they were assigned
+	 */
+	public Object call(){
+		for(int i = 0; i < agents.numObjs; i++)
+			((Agent) agents.objs[i]).step(this);
+		return null;
+	}
+	
+	/**
+	 * Make the changes held by the strip: the agents' moves, then their departures, then their
+	 * wakeups, and finally their events
+	 */
+	void commit(){
+		for(int i = 0; i < movers.numObjs; i++)
+			world.contactIndex.move((ContactGrid.Resident) movers.objs[i], moveXs.objs[i], moveYs.objs[i]);
+		for(int i = 0; i < leavers.numObjs; i++)
+			((HumanTeleporter) leavers.objs[i]).removeMe();
+		for(int i = 0; i < wakers.numObjs; i++)
+			world.agentSchedule.scheduleOnce(wakeTimes.objs[i], (Steppable) wakers.objs[i]);
+		for(int i = 0; i < eventTypes.numObjs; i++)
+			world.logEvent(eventTypes.objs[i], eventAgents.objs[i], eventValues.objs[i], eventXs.objs[i], eventYs.objs[i]);
+		if(world.metrics != null)
+			world.metrics.agentSteps += numStepped;
+		
+		numStepped = 0;
+		agents.clear();
+		movers.clear();
+		moveXs.clear();
+		moveYs.clear();
+		leavers.clear();
+		wakers.clear();
+		wakeTimes.clear();
+		eventTypes.clear();
+		eventAgents.clear();
+		eventValues.clear();
+		eventXs.clear();
+		eventYs.clear();
+	}
+}
@@ -0,0 +1,183 @@
+package modernPump.sim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import modernPump.agents.HumanTeleporter;
+import modernPump.objects.ContactGrid;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Bag;
+
+/**
+ * Splits the world into horizontal strips, so that the work of each tick can be shared among
+ * threads. Each strip is a run of whole rows of the contact index, and the strips are chosen so
+ * that each holds about as many homes as every other. As the contact index numbers its cells row
+ * by row, the cells of each strip are also a contiguous run of cell indices.
+ *
+ * The agents woken in a tick are stepped in the strip in which they find themselves, each strip
+ * on a thread of its own, and the changes they make to the shared parts of the world are then
+ * committed strip by strip, in order (see Strip). As every agent draws from a random stream of its
+ * own, and nothing it does in a tick depends on the changes made by the others, a run with a given
+ * seed comes out the same however many strips and threads it is split among. Only the order of
+ * things within a tick, such as that of the events logged, changes.
+ *
+ * The TransmissionEngine shares out its search for the contacts of infected hosts among the same
+ * threads.
+ *
+ * @author swise
+ *
+ */
+public class StripPartition implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static int maxThreads = Runtime.getRuntime().availableProcessors(); // the most threads used to work on the strips
+	
+	ModernPump world;
+	Strip [] strips;
+	int [] firstRows; // the first row of the contact index in each strip, followed by the number of rows
+	transient ExecutorService workers = null;
+	int numThreads;
+	
+	/**
+	 * @param world - the world, with its contact index built and its agents set up
+	 * @param numStrips - the number of strips into which to split the world
+	 */
+	public StripPartition(ModernPump world, int numStrips){
+		this.world = world;
+		ContactGrid grid = world.contactIndex;
+		int numRows = grid.getHeight();
+		numStrips = Math.max(1, Math.min(numStrips, numRows));
+		
+		// count the homes in each row, and cut the rows into runs holding equal shares of them
+		int [] homesInRow = new int [numRows];
+		for(HumanTeleporter h: world.humans)
+			homesInRow[grid.rowOf(h.getHome().y)]++;
+		firstRows = balance(homesInRow, numStrips);
+		
+		strips = new Strip [numStrips];
+		for(int s = 0; s < numStrips; s++)
+			strips[s] = new Strip(world, true);
+		numThreads = Math.max(1, Math.min(maxThreads, numStrips));
+	}
+	
+	/**
+	 * Cut the rows into the given number of runs, each of at least one row, holding about equal
+	 * shares of the homes
+	 *
+	 * @param homesInRow - the number of homes in each row
+	 * @return the first row of each run, followed by the number of rows
+	 */
+	public static int [] balance(int [] homesInRow, int numRuns){
+		int numRows = homesInRow.length;
+		long numHomes = 0;
+		for(int n: homesInRow)
+			numHomes += n;
+		
+		int [] firstRows = new int [numRuns + 1];
+		firstRows[numRuns] = numRows;
+		int row = 0;
+		long total = 0;
+		for(int s = 1; s < numRuns; s++){
+			long share = numHomes * s / numRuns;
+			while(row < numRows - (numRuns - s) && (total < share || row < firstRows[s - 1] + 1))
+				total += homesInRow[row++];
+			firstRows[s] = row;
+		}
+		return firstRows;
+	}
+	
+	/** @return the run holding the given row, given the first rows of the runs (see balance()) */
+	public static int runOfRow(int [] firstRows, int row){
+		int s = Arrays.binarySearch(firstRows, 0, firstRows.length - 1, row); // the first rows are strictly increasing
+		return s >= 0 ? s : -s - 2;
+	}
+	
+	/** @return the number of strips */
+	public int getNumStrips(){ return strips.length; }
+	
+	/** @return the strip with the given number, counting from the south */
+	public Strip getStrip(int strip){ return strips[strip]; }
+	
+	/** @return the first row of the contact index in the given strip, or the number of rows if it is the number of strips */
+	public int getFirstRow(int strip){ return firstRows[strip]; }
+	
+	/** @return the strip holding the given row of the contact index */
+	public int stripOfRow(int row){
+		return runOfRow(firstRows, row);
+	}
+	
+	/** @return the strip holding the given y position */
+	public int stripOf(double y){
+		return stripOfRow(world.contactIndex.rowOf(y));
+	}
+	
+	/**
+	 * Step the given run of agents, each in the strip it is in, and commit their changes. Anything
+	 * which is not a Strip.Agent is stepped first, serially
+	 */
+	public void step(SimState state, Bag agents, int from, int to){
+		for(int i = from; i < to; i++){
+			Object o = agents.objs[i];
+			if(o instanceof Strip.Agent){
+				Strip.Agent a = (Strip.Agent) o;
+				strips[stripOf(a.getY())].agents.add(a);
+			}
+			else
+				((Steppable) o).step(state);
+		}
+		
+		invokeAll(Arrays.asList(strips));
+		for(Strip s: strips)
+			s.commit();
+	}
+	
+	/**
+	 * Run the given tasks on the partition's threads, returning once they have all finished
+	 */
+	public void invokeAll(Collection <? extends Callable <Object>> tasks){
+		try {
+			if(numThreads == 1){
+				for(Callable <Object> task: tasks)
+					task.call();
+				return;
+			}
+			
+			if(workers == null)
+				workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+					int numCreated = 0;
+					public Thread newThread(Runnable r){
+						Thread t = new Thread(r, "strip-" + numCreated++);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			for(Future <Object> f: workers.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while working on the strips", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("could not work on the strips", e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("could not work on the strips", e);
+		}
+	}
+	
+	/** Stop the partition's threads */
+	public void close(){
+		if(workers != null)
+			workers.shutdown();
+		workers = null;
+	}
+}
@@ -0,0 +1,147 @@
+package modernPump.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import modernPump.objects.LandMask;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.geo.MasonGeometry;
+import swise.objects.network.GeoNode;
+import swise.objects.network.ListEdge;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Builds made-up worlds of any size, for measuring the simulation without its data. The world is
+ * a square of land, sized to hold the requested number of agents at roughly the density of
+ * Jacmel, whose southern side is a coast of shallow bays (so that some paths have to go around
+ * water) and is its one waterway. A grid of roads covers the land, and health facilities are
+ * scattered over it. The agents' homes are gathered into neighbourhoods of varying size, as the
+ * residential areas of the real data are.
+ *
+ * The world is written out as a WorldSnapshot, so that a ModernPump restored from it goes through
+ * exactly the same start() as one restored from a snapshot of the real data. It is keyed by the
+ * number of agents, the seed and the parameters of the made-up world (see key()).
+ *
+ * @author swise
+ *
+ */
+public class SyntheticWorld {
+	
+	public static double density = 2500; // agents per square kilometre
+	public static double roadSpacing = 250; // the distance between neighbouring roads of the grid
+	public static double facilitySpacing = 2000; // roughly the distance between health facilities
+	public static int agentsPerNeighbourhood = 500;
+	public static double bayWidth = 2000, bayDepth = 200; // the shape of the bays along the coast
+	
+	static final String keyPrefix = "synthetic "; // begins the keys of the snapshots of made-up worlds
+	
+	GeometryFactory fa = new GeometryFactory();
+	
+	/**
+	 * @return the key of the snapshot of the world built for the given number of agents and seed
+	 */
+	public static String key(int numAgents, long seed){
+		return keyPrefix + numAgents + " seed " + seed + " density " + density + " roadSpacing " + roadSpacing
+				+ " facilitySpacing " + facilitySpacing + " agentsPerNeighbourhood " + agentsPerNeighbourhood
+				+ " bays " + bayWidth + " " + bayDepth + " landMaskResolution " + ModernPump.landMaskResolution;
+	}
+	
+	/**
+	 * Build a world for the given number of agents and write it to the given snapshot file
+	 */
+	public static void build(int numAgents, long seed, String filename) throws IOException {
+		new SyntheticWorld().write(numAgents, new MersenneTwisterFast(seed), filename, key(numAgents, seed));
+	}
+	
+	void write(int numAgents, MersenneTwisterFast random, String filename, String key) throws IOException {
+		
+		ModernPump world = new ModernPump(0);
+		
+		// the land: a square, with bays along its southern side. The bays are shallow for their width,
+		// as the detours which paths take around water can only reach so far (see Human.clearPath)
+		double side = Math.max(2000, Math.sqrt(numAgents / density) * 1000);
+		double minX = 740000, minY = 2009000, maxX = minX + side, maxY = minY + side;
+		int numCoastPoints = (int) (side / 50) + 1;
+		Coordinate [] coast = new Coordinate [numCoastPoints];
+		for(int i = 0; i < numCoastPoints; i++){
+			double x = minX + side * i / (numCoastPoints - 1);
+			coast[i] = new Coordinate(x, minY + .5 * bayDepth * (1 + Math.cos(2 * Math.PI * (x - minX) / bayWidth)));
+		}
+		Coordinate [] outline = new Coordinate [numCoastPoints + 3];
+		System.arraycopy(coast, 0, outline, 0, numCoastPoints);
+		outline[numCoastPoints] = new Coordinate(maxX, maxY);
+		outline[numCoastPoints + 1] = new Coordinate(minX, maxY);
+		outline[numCoastPoints + 2] = new Coordinate(coast[0]);
+		Polygon land = fa.createPolygon(fa.createLinearRing(outline), null);
+		
+		world.MBR = new Envelope(minX, maxX, minY, maxY);
+		world.landArea = land;
+		world.land = new LandMask(land, ModernPump.landMaskResolution);
+		world.baseLayer.addGeometry(new MasonGeometry(land));
+		world.waterwayLayer.addGeometry(new MasonGeometry(fa.createLineString(coast)));
+		
+		// a grid of roads, leaving out those which would run into the sea
+		int n = (int) (side / roadSpacing) + 1;
+		GeoNode [][] nodes = new GeoNode [n][n];
+		Network roads = new Network(false);
+		for(int i = 0; i < n; i++)
+			for(int j = 0; j < n; j++){
+				Coordinate c = new Coordinate(minX + i * roadSpacing, minY + j * roadSpacing);
+				if(!world.land.contains(c)) continue;
+				nodes[i][j] = new GeoNode(fa.createPoint(c));
+				roads.addNode(nodes[i][j]);
+			}
+		for(int i = 0; i < n; i++)
+			for(int j = 0; j < n; j++){
+				if(i + 1 < n) addRoad(world, roads, nodes[i][j], nodes[i + 1][j]);
+				if(j + 1 < n) addRoad(world, roads, nodes[i][j], nodes[i][j + 1]);
+			}
+		world.roads = roads;
+		world.roadLayer.setMBR(world.MBR);
+		
+		// health facilities, scattered over the land
+		int numFacilities = Math.max(1, (int) (side * side / (facilitySpacing * facilitySpacing)));
+		for(int i = 0; i < numFacilities; i++)
+			world.medicalLayer.addGeometry(new MasonGeometry(fa.createPoint(randomPointOnLand(world, random, minX, minY, side))));
+		
+		// the homes, in neighbourhoods of varying size
+		ArrayList <Coordinate> homes = new ArrayList <Coordinate> (numAgents);
+		while(homes.size() < numAgents){
+			Coordinate centre = randomPointOnLand(world, random, minX, minY, side);
+			int size = Math.min(numAgents - homes.size(), 1 + random.nextInt(2 * agentsPerNeighbourhood));
+			double spread = 50 + random.nextDouble() * 250;
+			for(int i = 0; i < size; i++){
+				Coordinate c = new Coordinate(centre.x + random.nextGaussian() * spread, centre.y + random.nextGaussian() * spread);
+				if(!world.land.contains(c)) c = centre;
+				homes.add(c);
+			}
+		}
+		
+		WorldSnapshot.save(world, homes, filename, key);
+	}
+	
+	void addRoad(ModernPump world, Network roads, GeoNode from, GeoNode to){
+		if(from == null || to == null) return;
+		LineString line = fa.createLineString(new Coordinate [] {from.geometry.getCoordinate(), to.geometry.getCoordinate()});
+		MasonGeometry mg = new MasonGeometry(line);
+		mg.addStringAttribute("highway", "local");
+		roads.addEdge(new ListEdge(new Edge(from, to, mg), line.getLength()));
+		world.roadLayer.addGeometry(mg);
+	}
+	
+	Coordinate randomPointOnLand(ModernPump world, MersenneTwisterFast random, double minX, double minY, double side){
+		Coordinate c;
+		do {
+			c = new Coordinate(minX + random.nextDouble() * side, minY + random.nextDouble() * side);
+		} while(!world.land.contains(c));
+		return c;
+	}
+}
@@ -0,0 +1,171 @@
+package modernPump.sim;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Arrays;
+
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * Records where the time of each tick goes. Over the course of a tick, the parts of the simulation
+ * add to its counts (agents stepped, contact queries made, candidate contacts examined and
+ * infections made) and time their phases (moving the agents, spreading the infections, and the
+ * bookkeeping of the agent schedule). At the end of the tick the totals are kept in a per-tick
+ * history, which can be inspected as the simulation runs or written out afterwards.
+ *
+ * When running on a JVM with Flight Recorder, each tick and each phase is also emitted as a JFR
+ * event (see JfrEvents), so that a recording of a production run shows the simulation's own
+ * structure alongside the JVM's. Such events cost next to nothing while no recording is running.
+ *
+ * @author swise
+ *
+ */
+public class TickMetrics implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static final int phase_MOVEMENT = 0;
+	public static final int phase_TRANSMISSION = 1;
+	public static final int phase_SCHEDULING = 2;
+	static final String [] phaseNames = {"movement", "transmission", "scheduling"};
+	
+	// the counts of the tick in progress
+	public long agentSteps = 0, contactQueries = 0, candidatesExamined = 0, infections = 0;
+	long [] phaseNanos = new long [phaseNames.length];
+	long [] phaseStart = new long [phaseNames.length];
+	long tickStart = -1;
+	long tick = 0; // the number of steps the schedule had taken when the tick began
+	
+	// the history of the finished ticks
+	int numTicks = 0;
+	long [] ticks = new long [64]; // the schedule's step at the start of each
+	long [] steps = new long [64], queries = new long [64], candidates = new long [64], infected = new long [64];
+	long [][] phaseHistory = new long [phaseNames.length][64];
+	long [] tickNanos = new long [64];
+	
+	transient boolean jfr; // whether the metrics are also emitted as JFR events (not carried over into checkpoints)
+	transient Object tickEvent;
+	transient Object [] phaseEvents = new Object [phaseNames.length];
+	
+	/**
+	 * @param jfr - whether to emit JFR events, if the JVM supports them
+	 */
+	public TickMetrics(boolean jfr){
+		this.jfr = jfr && flightRecorderAvailable();
+	}
+	
+	static boolean flightRecorderAvailable(){
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Start and end the recording of each tick, around everything else which happens in it
+	 */
+	public void schedule(Schedule schedule){
+		schedule.scheduleRepeating(Schedule.EPOCH, Integer.MIN_VALUE, new Steppable(){
+			private static final long serialVersionUID = 1L;
+			public void step(SimState state){ startTick(state.schedule.getSteps()); }
+		}, 1);
+		schedule.scheduleRepeating(Schedule.EPOCH, Integer.MAX_VALUE, new Steppable(){
+			private static final long serialVersionUID = 1L;
+			public void step(SimState state){ endTick(); }
+		}, 1);
+	}
+	
+	void startTick(long t){
+		tick = t;
+		tickStart = System.nanoTime();
+		if(jfr)
+			tickEvent = JfrEvents.beginTick();
+	}
+	
+	/** Mark the start of a phase of the current tick */
+	public void beginPhase(int phase){
+		phaseStart[phase] = System.nanoTime();
+		if(jfr)
+			phaseEvents[phase] = JfrEvents.beginPhase();
+	}
+	
+	/** Mark the end of a phase of the current tick, adding its time to the phase's total */
+	public void endPhase(int phase){
+		phaseNanos[phase] += System.nanoTime() - phaseStart[phase];
+		if(jfr && phaseEvents[phase] != null){
+			JfrEvents.commitPhase(phaseEvents[phase], phaseNames[phase], tick);
+			phaseEvents[phase] = null;
+		}
+	}
+	
+	void endTick(){
+		long elapsed = tickStart < 0 ? 0 : System.nanoTime() - tickStart;
+		if(jfr && tickEvent != null){
+			JfrEvents.commitTick(tickEvent, tick, agentSteps, contactQueries, candidatesExamined, infections,
+					phaseNanos[phase_MOVEMENT], phaseNanos[phase_TRANSMISSION], phaseNanos[phase_SCHEDULING]);
+			tickEvent = null;
+		}
+		
+		if(numTicks == tickNanos.length){
+			int capacity = 2 * numTicks;
+			ticks = Arrays.copyOf(ticks, capacity);
+			steps = Arrays.copyOf(steps, capacity);
+			queries = Arrays.copyOf(queries, capacity);
+			candidates = Arrays.copyOf(candidates, capacity);
+			infected = Arrays.copyOf(infected, capacity);
+			for(int p = 0; p < phaseHistory.length; p++)
+				phaseHistory[p] = Arrays.copyOf(phaseHistory[p], capacity);
+			tickNanos = Arrays.copyOf(tickNanos, capacity);
+		}
+		ticks[numTicks] = tick;
+		steps[numTicks] = agentSteps;
+		queries[numTicks] = contactQueries;
+		candidates[numTicks] = candidatesExamined;
+		infected[numTicks] = infections;
+		for(int p = 0; p < phaseHistory.length; p++)
+			phaseHistory[p][numTicks] = phaseNanos[p];
+		tickNanos[numTicks] = elapsed;
+		numTicks++;
+		
+		agentSteps = contactQueries = candidatesExamined = infections = 0;
+		Arrays.fill(phaseNanos, 0);
+		tickStart = -1;
+	}
+	
+	/**
+	 * Write the metrics of every finished tick, one tick per line, with times in milliseconds:
+	 *
+	 * 		tick	agentSteps	contactQueries	candidatesExamined	infections	movement	transmission	scheduling	total
+	 */
+	public void write(Writer w) throws IOException {
+		w.write("tick\tagentSteps\tcontactQueries\tcandidatesExamined\tinfections\tmovementMs\ttransmissionMs\tschedulingMs\ttotalMs\n");
+		for(int t = 0; t < numTicks; t++){
+			w.write(ticks[t] + "\t" + steps[t] + "\t" + queries[t] + "\t" + candidates[t] + "\t" + infected[t]);
+			for(int p = 0; p < phaseHistory.length; p++)
+				w.write("\t" + phaseHistory[p][t] / 1e6);
+			w.write("\t" + tickNanos[t] / 1e6 + "\n");
+		}
+	}
+	
+	/** @return the number of ticks recorded so far */
+	public int getNumTicks(){ return numTicks; }
+	
+	/** @return the schedule's step at the start of the given recorded tick */
+	public long getTick(int tick){ return ticks[tick]; }
+	
+	public long getAgentSteps(int tick){ return steps[tick]; }
+	public long getContactQueries(int tick){ return queries[tick]; }
+	public long getCandidatesExamined(int tick){ return candidates[tick]; }
+	public long getInfections(int tick){ return infected[tick]; }
+	
+	/** @return the time spent in the given phase of the given tick, in nanoseconds */
+	public long getPhaseNanos(int tick, int phase){ return phaseHistory[phase][tick]; }
+	
+	/** @return the wall time of the given tick, in nanoseconds */
+	public long getTickNanos(int tick){ return tickNanos[tick]; }
+}
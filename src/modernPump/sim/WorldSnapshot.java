@@ -0,0 +1,422 @@
+package modernPump.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import modernPump.agents.HumanTeleporter;
+import modernPump.objects.LandMask;
+import sim.field.geo.GeomVectorField;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+import swise.objects.network.GeoNode;
+import swise.objects.network.ListEdge;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Saves the parts of a freshly started ModernPump which never change over the course of a run
+ * (the data layers, the land area and its mask, the cleaned road network and the homes of the
+ * synthetic population) to a compact binary file, and restores them from it. Restoring skips
+ * reading the shapefiles, merging the land area, classifying the land mask and cleaning the road
+ * network, so a new run only needs to create its agents.
+ *
+ * The file is read through a memory-mapped buffer. Geometries are stored as WKB, and each
+ * MasonGeometry is only stored once: later references to it (a road which is both in the road
+ * layer and on an edge of the network, say) are stored as its position in the file.
+ *
+ * Each snapshot is keyed by the size and modification time of the shapefiles it was built from,
+ * together with the parameters used in building it (see key()). If any of them changes, the
+ * snapshot is out of date: it is no longer restored, and the world is built afresh and saved over
+ * it. Snapshots of made-up worlds carry a key of their own (see SyntheticWorld.key()).
+ *
+ * @author swise
+ *
+ */
+public class WorldSnapshot {
+	
+	static final int magic = 0x4d505753; // "MPWS"
+	static final int version = 2;
+	
+	static final Charset utf8 = Charset.forName("UTF-8");
+	
+	static final byte type_NULL = 0, type_INTEGER = 1, type_DOUBLE = 2, type_STRING = 3;
+	static final byte geometry_REFERENCE = 0, geometry_NEW = 1, geometry_GEONODE = 2;
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// SAVING ////////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Write the unchanging parts of the started world to the given file
+	 */
+	public static void save(ModernPump world, String filename) throws IOException {
+		ArrayList <Coordinate> homes = new ArrayList <Coordinate> (world.humans.size());
+		for(HumanTeleporter h: world.humans)
+			homes.add(h.getHome());
+		save(world, homes, filename);
+	}
+		
+	/**
+	 * Write the unchanging parts of the world to the given file, along with the given homes
+	 */
+	public static void save(ModernPump world, List <Coordinate> homes, String filename) throws IOException {
+		save(world, homes, filename, key(world));
+	}
+	
+	/**
+	 * As save(world, homes, filename), under the given key
+	 */
+	public static void save(ModernPump world, List <Coordinate> homes, String filename, String key) throws IOException {
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		Writer w = new Writer(out);
+		
+		out.writeInt(magic);
+		out.writeInt(version);
+		w.writeString(key);
+		
+		out.writeDouble(world.MBR.getMinX());
+		out.writeDouble(world.MBR.getMaxX());
+		out.writeDouble(world.MBR.getMinY());
+		out.writeDouble(world.MBR.getMaxY());
+		out.writeInt(world.grid_width);
+		out.writeInt(world.grid_height);
+		
+		w.writeLayer(world.baseLayer);
+		w.writeLayer(world.roadLayer);
+		w.writeLayer(world.waterwayLayer);
+		w.writeLayer(world.medicalLayer);
+		
+		w.writeGeometry(world.landArea);
+		world.land.write(out);
+		
+		w.writeNetwork(world.roads);
+		
+		// the homes of the agents
+		out.writeInt(homes.size());
+		for(Coordinate home: homes){
+			out.writeDouble(home.x);
+			out.writeDouble(home.y);
+		}
+		
+		out.close();
+	}
+	
+	static class Writer {
+		
+		DataOutputStream out;
+		WKBWriter wkb = new WKBWriter();
+		IdentityHashMap <MasonGeometry, Integer> written = new IdentityHashMap <MasonGeometry, Integer> ();
+		
+		Writer(DataOutputStream out){
+			this.out = out;
+		}
+		
+		void writeString(String s) throws IOException {
+			byte [] bytes = s.getBytes(utf8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		
+		void writeGeometry(Geometry g) throws IOException {
+			byte [] bytes = wkb.write(g);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		
+		void writeMasonGeometry(MasonGeometry mg) throws IOException {
+			
+			Integer ref = written.get(mg);
+			if(ref != null){
+				out.writeByte(geometry_REFERENCE);
+				out.writeInt(ref);
+				return;
+			}
+			written.put(mg, written.size());
+			
+			out.writeByte(mg instanceof GeoNode ? geometry_GEONODE : geometry_NEW);
+			writeGeometry(mg.geometry);
+			
+			Map <String, AttributeValue> attributes = mg.getAttributes();
+			out.writeInt(attributes.size());
+			for(Map.Entry <String, AttributeValue> e: attributes.entrySet()){
+				writeString(e.getKey());
+				out.writeBoolean(e.getValue().isHidden());
+				Object value = e.getValue().getValue();
+				if(value == null)
+					out.writeByte(type_NULL);
+				else if(value instanceof Integer){
+					out.writeByte(type_INTEGER);
+					out.writeInt((Integer) value);
+				}
+				else if(value instanceof Double){
+					out.writeByte(type_DOUBLE);
+					out.writeDouble((Double) value);
+				}
+				else {
+					out.writeByte(type_STRING);
+					writeString(value.toString());
+				}
+			}
+		}
+		
+		void writeLayer(GeomVectorField layer) throws IOException {
+			Bag geometries = layer.getGeometries();
+			out.writeInt(geometries.size());
+			for(Object o: geometries)
+				writeMasonGeometry((MasonGeometry) o);
+		}
+		
+		void writeNetwork(Network network) throws IOException {
+			
+			Bag nodes = network.getAllNodes();
+			IdentityHashMap <Object, Integer> nodeIndices = new IdentityHashMap <Object, Integer> ();
+			out.writeBoolean(network.isDirected());
+			out.writeInt(nodes.size());
+			for(Object n: nodes){
+				nodeIndices.put(n, nodeIndices.size());
+				writeMasonGeometry((MasonGeometry) n);
+			}
+			
+			// each edge of an undirected network is listed from both of its ends: only write it once
+			ArrayList <Edge> edges = new ArrayList <Edge> ();
+			IdentityHashMap <Edge, Boolean> seen = new IdentityHashMap <Edge, Boolean> ();
+			for(Object n: nodes)
+				for(Object o: network.getEdgesOut(n))
+					if(seen.put((Edge) o, Boolean.TRUE) == null)
+						edges.add((Edge) o);
+			
+			out.writeInt(edges.size());
+			for(Edge e: edges){
+				out.writeInt(nodeIndices.get(e.getFrom()));
+				out.writeInt(nodeIndices.get(e.getTo()));
+				out.writeDouble(e instanceof ListEdge ? ((ListEdge) e).length() : -1);
+				writeMasonGeometry((MasonGeometry) e.getInfo());
+			}
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// KEYS //////////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return the key of the world built from the given world's data: the size and modification time
+	 * of each of its shapefiles (.shp, .shx and .dbf), and the parameters which decide the land mask,
+	 * the road network and the homes
+	 */
+	public static String key(ModernPump world){
+		StringBuilder key = new StringBuilder();
+		for(String shapefile: world.dataFiles()){
+			String base = shapefile.substring(0, shapefile.length() - ".shp".length());
+			for(String extension: new String [] {".shp", ".shx", ".dbf"}){
+				File f = new File(base + extension);
+				key.append(f.getPath()).append(" ").append(f.length()).append(" ").append(f.lastModified()).append("\n");
+			}
+		}
+		key.append("resolution ").append(ModernPump.resolution)
+			.append(" landMaskResolution ").append(ModernPump.landMaskResolution)
+			.append(" roadCleanupSeed ").append(ModernPump.roadCleanupSeed)
+			.append(" homePlacementSeed ").append(ModernPump.homePlacementSeed)
+			.append(" homesPerArea ").append(ModernPump.homesPerArea)
+			.append(" homeScatter ").append(ModernPump.homeScatter);
+		return key.toString();
+	}
+	
+	/**
+	 * @return the key the snapshot was saved under, or null if there is no snapshot of this version
+	 * in the file
+	 */
+	public static String readKey(String filename) throws IOException {
+		if(!new File(filename).exists())
+			return null;
+		MappedByteBuffer buffer = map(filename);
+		if(buffer.remaining() < 8 || buffer.getInt() != magic || buffer.getInt() != version)
+			return null;
+		return new Reader(buffer).readString();
+	}
+	
+	/**
+	 * @return whether the given world would restore a snapshot saved under the given key: one of its
+	 * own data, up to date with it, or one of a made-up world
+	 */
+	static boolean matches(ModernPump world, String key){
+		return key.startsWith(SyntheticWorld.keyPrefix) || key.equals(key(world));
+	}
+	
+	/**
+	 * @return whether the file holds a snapshot which the given world would restore
+	 */
+	public static boolean isRestorable(ModernPump world, String filename) throws IOException {
+		String key = readKey(filename);
+		return key != null && matches(world, key);
+	}
+	
+	/**
+	 * @return whether there is a snapshot in the file saved under the given key
+	 */
+	public static boolean isCurrent(String filename, String key) throws IOException {
+		return key.equals(readKey(filename));
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	/////////////////////////// RESTORING /////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Fill the (newly constructed) world's layers, land area, land mask and road network from the
+	 * given file. Snapshots of the world's data must be up to date with it (see key()); those of
+	 * made-up worlds are restored as they are
+	 *
+	 * @return the homes of the agents to be created
+	 */
+	public static ArrayList <Coordinate> load(ModernPump world, String filename) throws IOException {
+		
+		MappedByteBuffer buffer = map(filename);
+		Reader r = new Reader(buffer);
+		
+		if(buffer.getInt() != magic || buffer.getInt() != version)
+			throw new IOException(filename + " is not a world snapshot, or is from an older version");
+		if(!matches(world, r.readString()))
+			throw new IOException(filename + " is out of date: the data or parameters it was built from have changed");
+		
+		double minX = buffer.getDouble(), maxX = buffer.getDouble(), minY = buffer.getDouble(), maxY = buffer.getDouble();
+		world.grid_width = buffer.getInt();
+		world.grid_height = buffer.getInt();
+		
+		r.readLayer(world.baseLayer);
+		r.readLayer(world.roadLayer);
+		r.readLayer(world.waterwayLayer);
+		r.readLayer(world.medicalLayer);
+		
+		world.MBR = world.roadLayer.getMBR();
+		world.MBR.init(minX, maxX, minY, maxY);
+		world.roadLayer.setMBR(world.MBR);
+		
+		world.landArea = r.readGeometry();
+		world.land = LandMask.read(buffer, world.landArea);
+		
+		world.roads = r.readNetwork();
+		world.roadNodes = world.roads.getAllNodes();
+		
+		int numHomes = buffer.getInt();
+		ArrayList <Coordinate> homes = new ArrayList <Coordinate> (numHomes);
+		for(int i = 0; i < numHomes; i++)
+			homes.add(new Coordinate(buffer.getDouble(), buffer.getDouble()));
+		
+		return homes;
+	}
+	
+	/**
+	 * @return the contents of the file, mapped into memory
+	 */
+	static MappedByteBuffer map(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(filename), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+	}
+	
+	static class Reader {
+		
+		ByteBuffer in;
+		WKBReader wkb = new WKBReader();
+		ArrayList <MasonGeometry> read = new ArrayList <MasonGeometry> ();
+		
+		Reader(ByteBuffer in){
+			this.in = in;
+		}
+		
+		String readString(){
+			byte [] bytes = new byte [in.getInt()];
+			in.get(bytes);
+			return new String(bytes, utf8);
+		}
+		
+		Geometry readGeometry() throws IOException {
+			byte [] bytes = new byte [in.getInt()];
+			in.get(bytes);
+			try {
+				return wkb.read(bytes);
+			} catch (ParseException e) {
+				throw new IOException("unreadable geometry in world snapshot", e);
+			}
+		}
+		
+		MasonGeometry readMasonGeometry() throws IOException {
+			
+			byte kind = in.get();
+			if(kind == geometry_REFERENCE)
+				return read.get(in.getInt());
+			
+			Geometry g = readGeometry();
+			MasonGeometry mg = kind == geometry_GEONODE ? new GeoNode(g) : new MasonGeometry(g);
+			read.add(mg);
+			
+			int numAttributes = in.getInt();
+			HashMap <String, AttributeValue> attributes = new HashMap <String, AttributeValue> ();
+			for(int i = 0; i < numAttributes; i++){
+				String name = readString();
+				boolean hidden = in.get() != 0;
+				byte type = in.get();
+				Object value = null;
+				if(type == type_INTEGER) value = in.getInt();
+				else if(type == type_DOUBLE) value = in.getDouble();
+				else if(type == type_STRING) value = readString();
+				attributes.put(name, new AttributeValue(value, hidden));
+			}
+			mg.addAttributes(attributes);
+			return mg;
+		}
+		
+		void readLayer(GeomVectorField layer) throws IOException {
+			int n = in.getInt();
+			for(int i = 0; i < n; i++)
+				layer.addGeometry(readMasonGeometry());
+		}
+		
+		Network readNetwork() throws IOException {
+			
+			Network network = new Network(in.get() != 0);
+			int numNodes = in.getInt();
+			Object [] nodes = new Object [numNodes];
+			for(int i = 0; i < numNodes; i++){
+				nodes[i] = readMasonGeometry();
+				network.addNode(nodes[i]);
+			}
+			
+			int numEdges = in.getInt();
+			for(int i = 0; i < numEdges; i++){
+				Object from = nodes[in.getInt()], to = nodes[in.getInt()];
+				double length = in.getDouble();
+				MasonGeometry info = readMasonGeometry();
+				Edge e = new Edge(from, to, info);
+				network.addEdge(length < 0 ? e : new ListEdge(e, length));
+			}
+			return network;
+		}
+	}
+}
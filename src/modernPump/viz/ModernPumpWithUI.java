@@ -53,7 +53,7 @@ public class ModernPumpWithUI extends GUIState {
 	private GeomVectorFieldPortrayal diseases = new GeomVectorFieldPortrayal();
 	private GeomVectorFieldPortrayal health = new GeomVectorFieldPortrayal();
 
-//	private FastValueGridPortrayal2D heatmap = new FastValueGridPortrayal2D();	
+	private FastValueGridPortrayal2D heatmap = new FastValueGridPortrayal2D();	
 		
 	///////////////////////////////////////////////////////////////////////////
 	/////////////////////////// BEGIN functions ///////////////////////////////
@@ -63,6 +63,7 @@ public class ModernPumpWithUI extends GUIState {
 	public ModernPumpWithUI(SimState state) {
 		super(state);
 		sim = (ModernPump) state;
+		sim.maxDisplayedAgents = Integer.MAX_VALUE; // give every human a point to draw
 	}
 
 	/** Begins the simulation */
@@ -116,13 +117,14 @@ public class ModernPumpWithUI extends GUIState {
 		diseases.setField(world.diseasesLayer);
 		diseases.setPortrayalForAll(new GeomPortrayal(Color.red, 50));
 		
+		// the total cases in each cell of the incidence grid
+		heatmap.setField(world.incidence.getLayer().getGrid());
+		heatmap.setMap(new SimpleColorMap(0, 10, new Color(0, 0, 0, 0), new Color(255, 0, 0, 150)));
+		
 		homes.setField(world.homesLayer);
 		homes.setPortrayalForAll( new GeomPortrayal(new Color(146,147,121, 40), 50, true));
 		homes.setImmutableField(true);
 		
-//		heatmap.setField(world.heatmap.getGrid()); 
-//		heatmap.setMap(new SimpleColorMap(0, 10, Color.black, Color.red));
-		
 		// reset stuff
 		// reschedule the displayer
 		display.reset();
@@ -144,6 +146,7 @@ public class ModernPumpWithUI extends GUIState {
 		display.attach(map, "Landscape");
 //		display.attach(homes, "Baseline Population");
 		display.attach(humans, "Agents");
+		display.attach(heatmap, "Incidence", false);
 		display.attach(diseases, "Diseases");
 		display.attach(water, "Waterways");
 		display.attach(roads, "Roads");